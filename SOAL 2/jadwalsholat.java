@@ -1,7 +1,34 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.chrono.HijrahChronology;
+import java.time.chrono.HijrahDate;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoField;
+import java.time.temporal.ValueRange;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 // Interface untuk pengingat audio (adzan)
 // Interface mendefinisikan kontrak untuk fitur audio reminder
@@ -14,12 +41,17 @@ interface AudioReminder {
 // Abstract class Prayer sebagai parent class untuk semua sholat
 // Abstract class tidak dapat diinstansiasi langsung
 abstract class Prayer {
+    // Formatter dipakai bersama, DateTimeFormatter immutable dan thread-safe
+    static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm");
+    
     // Protected agar bisa diakses oleh subclass
     protected String name;           // Nama sholat
     protected LocalTime time;        // Waktu sholat
     protected int rakaat;           // Jumlah rakaat
     protected boolean isCompleted;  // Status sudah sholat atau belum
     protected String arabicName;    // Nama dalam bahasa Arab
+    protected int revision;         // Bertambah setiap waktu/status berubah (untuk invalidasi cache)
+    protected Clock clock = Clock.systemDefaultZone(); // Diatur oleh PrayerSchedule.setClock
     
     // Constructor untuk inisialisasi properties dasar
     public Prayer(String name, String arabicName, LocalTime time, int rakaat) {
@@ -39,9 +71,8 @@ abstract class Prayer {
     
     // Method konkret yang bisa digunakan langsung oleh semua subclass
     public void displayInfo() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm");
         System.out.println("=== " + name + " (" + arabicName + ") ===");
-        System.out.println("Waktu: " + time.format(formatter));
+        System.out.println("Waktu: " + time.format(TIME_FORMAT));
         System.out.println("Rakaat: " + rakaat);
         System.out.println("Status: " + (isCompleted ? "✅ Sudah Sholat" : "⏰ Belum Sholat"));
     }
@@ -49,17 +80,29 @@ abstract class Prayer {
     // Method untuk menandai sholat sudah dikerjakan
     public void markCompleted() {
         this.isCompleted = true;
+        this.revision++;
         System.out.println("✅ " + name + " telah dikerjakan. Barakallahu fiik!");
     }
     
     // Method untuk reset status (untuk hari berikutnya)
     public void resetStatus() {
         this.isCompleted = false;
+        this.revision++;
     }
     
     // Method untuk mengecek apakah sudah waktunya sholat
     public boolean isTimeTopray() {
-        LocalTime now = LocalTime.now();
+        return isTimeTopray(LocalTime.now(clock));
+    }
+    
+    // Apakah hari ini (menurut clock) bulan Ramadan; false di luar jangkauan kalender Hijriah
+    protected boolean isRamadanToday() {
+        LocalDate today = LocalDate.now(clock);
+        return HijriCalendar.isSupported(today) && HijriCalendar.isRamadan(today);
+    }
+    
+    // Versi dengan waktu eksplisit, dipakai oleh jadwal yang memakai Clock sendiri
+    public boolean isTimeTopray(LocalTime now) {
         return now.isAfter(time) && !isCompleted;
     }
     
@@ -69,10 +112,16 @@ abstract class Prayer {
     public LocalTime getTime() { return time; }
     public int getRakaat() { return rakaat; }
     public boolean isCompleted() { return isCompleted; }
+    public int getRevision() { return revision; }
+    
+    void setClock(Clock clock) {
+        this.clock = clock;
+    }
     
     // Setter untuk waktu sholat
     public void setTime(LocalTime time) {
         this.time = time;
+        this.revision++;
     }
 }
 
@@ -99,6 +148,10 @@ class Fajr extends Prayer implements AudioReminder {
         
         System.out.println("📿 Sunnah sebelum Subuh: 2 rakaat");
         System.out.println("💡 Tips: Subuh adalah waktu yang penuh berkah untuk memulai hari");
+        
+        if (isRamadanToday()) {
+            System.out.println("🌙 Ramadan: waktu imsak telah lewat, selamat menunaikan ibadah puasa");
+        }
     }
     
     @Override
@@ -254,7 +307,10 @@ class Maghrib extends Prayer implements AudioReminder {
         
         System.out.println("📿 Sunnah setelah Maghrib: 2 rakaat");
         System.out.println("💡 Tips: Waktu mustajab untuk berdoa saat berbuka puasa");
-        System.out.println("🥛 Sunnah berbuka dengan kurma dan air putih");
+        
+        if (isRamadanToday()) {
+            System.out.println("🥛 Sunnah berbuka dengan kurma dan air putih");
+        }
     }
     
     @Override
@@ -339,6 +395,7 @@ class Isha extends Prayer implements AudioReminder {
 class PrayerSchedule {
     private List<Prayer> dailyPrayers;
     private String location;
+    private Clock clock = Clock.systemDefaultZone();
     
     public PrayerSchedule(String location) {
         this.location = location;
@@ -369,8 +426,9 @@ class PrayerSchedule {
         System.out.println("⏰ PENGECEKAN WAKTU SHOLAT:");
         boolean foundDue = false;
         
+        LocalTime now = LocalTime.now(clock);
         for (Prayer prayer : dailyPrayers) {
-            if (prayer.isTimeTopray()) {
+            if (prayer.isTimeTopray(now)) {
                 prayer.remind();
                 foundDue = true;
                 System.out.println();
@@ -416,7 +474,7 @@ class PrayerSchedule {
         for (Prayer prayer : dailyPrayers) {
             String status = prayer.isCompleted() ? "✅" : "⏰";
             System.out.println(status + " " + prayer.getName() + " (" + 
-                             prayer.getTime().format(DateTimeFormatter.ofPattern("HH:mm")) + ")");
+                             prayer.getTime().format(Prayer.TIME_FORMAT) + ")");
             if (prayer.isCompleted()) completed++;
         }
         
@@ -425,9 +483,891 @@ class PrayerSchedule {
                           " (" + String.format("%.1f", percentage) + "%)");
     }
     
+    // Revisi gabungan seluruh sholat, berubah hanya saat setTime/markCompleted/resetStatus
+    public long getRevision() {
+        long total = 0;
+        for (Prayer prayer : dailyPrayers) {
+            total += prayer.getRevision();
+        }
+        return total;
+    }
+    
+    // Setter untuk sumber waktu (misalnya Clock.fixed untuk pengujian atau benchmark)
+    public void setClock(Clock clock) {
+        this.clock = clock;
+        for (Prayer prayer : dailyPrayers) {
+            prayer.setClock(clock);
+        }
+    }
+    
     // Getter methods
     public List<Prayer> getDailyPrayers() { return dailyPrayers; }
     public String getLocation() { return location; }
+    public Clock getClock() { return clock; }
+}
+
+// Penulis iCalendar (RFC 5545) yang dipakai bersama ScheduleRenderer dan ScheduleExporter
+// Menulis langsung ke StringBuilder; tanggal dan waktu diformat manual tanpa
+// DateTimeFormatter per event
+final class ICalendarWriter {
+    static final String HEADER = "BEGIN:VCALENDAR\r\nVERSION:2.0\r\nPRODID:-//jadwalsholat//ID\r\n";
+    static final String FOOTER = "END:VCALENDAR\r\n";
+    
+    private static final DateTimeFormatter STAMP =
+            DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    
+    private ICalendarWriter() {}
+    
+    // Nilai DTSTAMP (wajib di setiap VEVENT): waktu pembuatan representasi dalam UTC
+    static String stamp(Clock clock) {
+        return STAMP.format(Instant.now(clock));
+    }
+    
+    static StringBuilder appendEvent(StringBuilder sb, PrayerSchedule schedule, Prayer prayer,
+                                     LocalDate date, String stamp) {
+        String location = schedule.getLocation();
+        sb.append("BEGIN:VEVENT\r\nUID:");
+        appendDate(sb, date, false).append('-');
+        appendText(sb, prayer.getName().toLowerCase()).append('@');
+        appendText(sb, location.toLowerCase().replace(' ', '-'))
+          .append("\r\nDTSTAMP:").append(stamp)
+          .append("\r\nDTSTART:");
+        appendDate(sb, date, false).append('T');
+        appendTime(sb, prayer.getTime(), false).append("\r\nSUMMARY:");
+        appendText(sb, prayer.getName()).append(" (");
+        appendText(sb, prayer.getArabicName()).append(")\r\nLOCATION:");
+        return appendText(sb, location)
+          .append("\r\nDESCRIPTION:").append(prayer.getRakaat()).append(" rakaat")
+          .append("\r\nEND:VEVENT\r\n");
+    }
+    
+    // Teks iCalendar: backslash, koma, titik koma dan baris baru harus di-escape (RFC 5545)
+    static StringBuilder appendText(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\n') {
+                sb.append("\\n");
+            } else if (c != '\r') {
+                if (c == ',' || c == ';' || c == '\\') sb.append('\\');
+                sb.append(c);
+            }
+        }
+        return sb;
+    }
+    
+    // Format tanggal manual: yyyy-MM-dd (separated) atau yyyyMMdd
+    static StringBuilder appendDate(StringBuilder sb, LocalDate date, boolean separated) {
+        sb.append(date.getYear());
+        if (separated) sb.append('-');
+        appendTwoDigits(sb, date.getMonthValue());
+        if (separated) sb.append('-');
+        return appendTwoDigits(sb, date.getDayOfMonth());
+    }
+    
+    // Format waktu manual: HH:mm (separated) atau HHmmss
+    static StringBuilder appendTime(StringBuilder sb, LocalTime time, boolean separated) {
+        appendTwoDigits(sb, time.getHour());
+        if (separated) sb.append(':');
+        appendTwoDigits(sb, time.getMinute());
+        return separated ? sb : appendTwoDigits(sb, time.getSecond());
+    }
+    
+    private static StringBuilder appendTwoDigits(StringBuilder sb, int value) {
+        return sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+}
+
+// Class untuk merender jadwal (teks, JSON, iCalendar) sebagai byte UTF-8 yang sudah di-encode
+// Hasil render disimpan per instance jadwal dan tanggal, lalu dipakai ulang tanpa format ulang;
+// cache dibatasi MAX_ENTRIES entry dan yang paling lama tidak dipakai dibuang lebih dulu (LRU)
+// Untuk iCalendar, DTSTAMP adalah waktu saat hasil pertama kali dirender ke cache (waktu
+// pembuatan representasi); stamp baru muncul setelah jadwal berubah atau invalidate()
+class ScheduleRenderer {
+    enum Format { TEXT, JSON, ICALENDAR }
+    
+    static final int MAX_ENTRIES = 256;
+    
+    // Key cache: identitas jadwal (dua jadwal dengan nama lokasi sama tetap terpisah) + tanggal
+    private static final class Key {
+        final PrayerSchedule schedule;
+        final LocalDate date;
+        
+        Key(PrayerSchedule schedule, LocalDate date) {
+            this.schedule = schedule;
+            this.date = date;
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) return false;
+            Key key = (Key) other;
+            return key.schedule == schedule && key.date.equals(date);
+        }
+        
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(schedule) * 31 + date.hashCode();
+        }
+    }
+    
+    // Entry cache: revisi jadwal saat dirender + hasil tiap format
+    // Slot atomic agar byte[] yang dirender satu thread terpublikasi aman ke thread lain
+    private static class Entry {
+        final long revision;
+        final AtomicReferenceArray<byte[]> rendered = new AtomicReferenceArray<>(Format.values().length);
+        
+        Entry(long revision) {
+            this.revision = revision;
+        }
+    }
+    
+    private final Map<Key, Entry> cache = Collections.synchronizedMap(
+            new LinkedHashMap<Key, Entry>(64, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+                
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            });
+    
+    // Mengembalikan jadwal yang sudah di-encode; array yang dikembalikan jangan diubah
+    public byte[] render(PrayerSchedule schedule, LocalDate date, Format format) {
+        Key key = new Key(schedule, date);
+        long revision = schedule.getRevision();
+        
+        Entry entry = cache.get(key);
+        if (entry == null || entry.revision != revision) {
+            entry = new Entry(revision);
+            cache.put(key, entry);
+        }
+        
+        byte[] bytes = entry.rendered.get(format.ordinal());
+        if (bytes == null) {
+            bytes = encode(schedule, date, format).getBytes(StandardCharsets.UTF_8);
+            // Jika thread lain lebih dulu mengisi slot, hasil miliknya yang dipakai bersama
+            if (!entry.rendered.compareAndSet(format.ordinal(), null, bytes)) {
+                bytes = entry.rendered.get(format.ordinal());
+            }
+        }
+        return bytes;
+    }
+    
+    // Menghapus cache untuk satu jadwal dan tanggal
+    public void invalidate(PrayerSchedule schedule, LocalDate date) {
+        cache.remove(new Key(schedule, date));
+    }
+    
+    public int size() { return cache.size(); }
+    
+    private String encode(PrayerSchedule schedule, LocalDate date, Format format) {
+        switch (format) {
+            case JSON: return toJson(schedule, date);
+            case ICALENDAR: return toICalendar(schedule, date);
+            default: return toText(schedule, date);
+        }
+    }
+    
+    private String toText(PrayerSchedule schedule, LocalDate date) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("JADWAL SHOLAT ").append(schedule.getLocation().toUpperCase())
+          .append(" - ").append(date).append('\n');
+        for (Prayer prayer : schedule.getDailyPrayers()) {
+            sb.append(prayer.getName()).append(" (").append(prayer.getArabicName()).append(") ")
+              .append(prayer.getTime().format(Prayer.TIME_FORMAT))
+              .append(" - ").append(prayer.getRakaat()).append(" rakaat")
+              .append(prayer.isCompleted() ? " [selesai]" : "").append('\n');
+        }
+        return sb.toString();
+    }
+    
+    private String toJson(PrayerSchedule schedule, LocalDate date) {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("{\"location\":\"").append(escapeJson(schedule.getLocation()))
+          .append("\",\"date\":\"").append(date).append("\",\"prayers\":[");
+        List<Prayer> prayers = schedule.getDailyPrayers();
+        for (int i = 0; i < prayers.size(); i++) {
+            Prayer prayer = prayers.get(i);
+            if (i > 0) sb.append(',');
+            sb.append("{\"name\":\"").append(escapeJson(prayer.getName()))
+              .append("\",\"arabicName\":\"").append(escapeJson(prayer.getArabicName()))
+              .append("\",\"time\":\"").append(prayer.getTime().format(Prayer.TIME_FORMAT))
+              .append("\",\"rakaat\":").append(prayer.getRakaat())
+              .append(",\"completed\":").append(prayer.isCompleted()).append('}');
+        }
+        return sb.append("]}").toString();
+    }
+    
+    private String toICalendar(PrayerSchedule schedule, LocalDate date) {
+        StringBuilder sb = new StringBuilder(1024).append(ICalendarWriter.HEADER);
+        String stamp = ICalendarWriter.stamp(schedule.getClock());
+        for (Prayer prayer : schedule.getDailyPrayers()) {
+            ICalendarWriter.appendEvent(sb, schedule, prayer, date, stamp);
+        }
+        return sb.append(ICalendarWriter.FOOTER).toString();
+    }
+    
+    // String JSON: kutip, backslash dan karakter kontrol (< 0x20) wajib di-escape (RFC 8259)
+    private static String escapeJson(String value) {
+        StringBuilder sb = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                if (sb != null) sb.append(c);
+                continue;
+            }
+            if (sb == null) {
+                sb = new StringBuilder(value.length() + 16).append(value, 0, i);
+            }
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\b': sb.append("\\b"); break;
+                case '\f': sb.append("\\f"); break;
+                default: sb.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        return sb != null ? sb.toString() : value;
+    }
+}
+
+// Class untuk mencari lokasi terdekat dari koordinat GPS dan memilih jadwal otomatis
+// Tempat disimpan dalam k-d tree implisit (array paralel) atas vektor satuan 3D,
+// sehingga jarak Euclid sebanding dengan jarak lingkaran besar di permukaan bumi
+class LocationResolver {
+    private static final double KAABA_LAT = 21.4225;
+    private static final double KAABA_LON = 39.8262;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+    
+    private final String[] names;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[][] points;    // points[axis][i], axis 0..2 = x, y, z
+    private final int[] order;          // urutan index tempat sesuai layout k-d tree
+    private final Map<Integer, PrayerSchedule> schedules = new ConcurrentHashMap<>();
+    
+    public LocationResolver(List<String> names, double[] latitudes, double[] longitudes) {
+        int n = names.size();
+        if (latitudes.length != n || longitudes.length != n) {
+            throw new IllegalArgumentException("Jumlah nama, latitude dan longitude harus sama: "
+                    + n + ", " + latitudes.length + ", " + longitudes.length);
+        }
+        for (int i = 0; i < n; i++) {
+            if (!(latitudes[i] >= -90 && latitudes[i] <= 90) || !(longitudes[i] >= -180 && longitudes[i] <= 180)) {
+                throw new IllegalArgumentException("Koordinat di luar rentang untuk " + names.get(i)
+                        + ": " + latitudes[i] + ", " + longitudes[i]);
+            }
+        }
+        this.names = names.toArray(new String[0]);
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.points = new double[3][n];
+        this.order = new int[n];
+        
+        for (int i = 0; i < n; i++) {
+            double lat = Math.toRadians(latitudes[i]);
+            double lon = Math.toRadians(longitudes[i]);
+            points[0][i] = Math.cos(lat) * Math.cos(lon);
+            points[1][i] = Math.cos(lat) * Math.sin(lon);
+            points[2][i] = Math.sin(lat);
+            order[i] = i;
+        }
+        build(0, n, 0);
+    }
+    
+    // Memuat tempat dari file CSV dengan format: nama,latitude,longitude
+    // Baris data pertama yang koordinatnya bukan angka dianggap header dan dilewati;
+    // koordinat tidak valid di baris lain menghasilkan IOException dengan nomor baris
+    public static LocationResolver load(Path file) throws IOException {
+        List<String> names = new ArrayList<>();
+        double[] lats = new double[1024];
+        double[] lons = new double[1024];
+        
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            boolean firstRecord = true;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int second = line.lastIndexOf(',');
+                int first = second > 0 ? line.lastIndexOf(',', second - 1) : -1;
+                if (line.isEmpty() || line.charAt(0) == '#' || first < 0) {
+                    continue;
+                }
+                double lat;
+                double lon;
+                try {
+                    lat = parseCoordinate(line, first + 1, second);
+                    lon = parseCoordinate(line, second + 1, line.length());
+                } catch (NumberFormatException e) {
+                    if (firstRecord) {
+                        firstRecord = false;
+                        continue; // header, misalnya "nama,latitude,longitude"
+                    }
+                    throw new IOException(file + ":" + lineNumber + ": koordinat tidak valid", e);
+                }
+                firstRecord = false;
+                if (names.size() == lats.length) {
+                    lats = Arrays.copyOf(lats, lats.length * 2);
+                    lons = Arrays.copyOf(lons, lons.length * 2);
+                }
+                lats[names.size()] = lat;
+                lons[names.size()] = lon;
+                names.add(line.substring(0, first).trim());
+            }
+        }
+        return new LocationResolver(names,
+                Arrays.copyOf(lats, names.size()), Arrays.copyOf(lons, names.size()));
+    }
+    
+    // Parser desimal sederhana untuk koordinat (jauh lebih cepat dari Double.parseDouble);
+    // format lain (eksponen, digit terlalu banyak) diserahkan ke Double.parseDouble
+    private static double parseCoordinate(String line, int start, int end) {
+        while (start < end && line.charAt(start) == ' ') start++;
+        while (end > start && line.charAt(end - 1) == ' ') end--;
+        
+        boolean negative = start < end && line.charAt(start) == '-';
+        int i = negative || (start < end && line.charAt(start) == '+') ? start + 1 : start;
+        long digits = 0;
+        int count = 0;
+        int scale = -1;
+        for (; i < end; i++) {
+            char c = line.charAt(i);
+            if (c == '.' && scale < 0) {
+                scale = 0;
+            } else if (c >= '0' && c <= '9' && count < 15) {
+                digits = digits * 10 + (c - '0');
+                count++;
+                if (scale >= 0) scale++;
+            } else {
+                return Double.parseDouble(line.substring(start, end));
+            }
+        }
+        if (count == 0) {
+            return Double.parseDouble(line.substring(start, end));
+        }
+        double value = scale > 0 ? digits / POWERS_OF_TEN[scale] : digits;
+        return negative ? -value : value;
+    }
+    
+    // Membangun k-d tree: median tiap rentang [lo, hi) diletakkan di tengah
+    private void build(int lo, int hi, int axis) {
+        if (hi - lo <= 1) return;
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, points[axis]);
+        int next = (axis + 1) % 3;
+        build(lo, mid, next);
+        build(mid + 1, hi, next);
+    }
+    
+    // Quickselect atas array order sehingga order[k] berisi median pada sumbu tersebut
+    private void select(int lo, int hi, int k, double[] coords) {
+        while (hi > lo) {
+            double pivot = coords[order[(lo + hi) >>> 1]];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (coords[order[i]] < pivot) i++;
+                while (coords[order[j]] > pivot) j--;
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i++] = order[j];
+                    order[j--] = tmp;
+                }
+            }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else return;
+        }
+    }
+    
+    // Mengembalikan index tempat terdekat, atau -1 jika index kosong
+    public int nearest(double latitude, double longitude) {
+        if (order.length == 0) return -1;
+        double lat = Math.toRadians(latitude);
+        double lon = Math.toRadians(longitude);
+        double[] query = {
+            Math.cos(lat) * Math.cos(lon),
+            Math.cos(lat) * Math.sin(lon),
+            Math.sin(lat)
+        };
+        double[] best = {Double.MAX_VALUE, -1};
+        search(0, order.length, 0, query, best);
+        return (int) best[1];
+    }
+    
+    private void search(int lo, int hi, int axis, double[] query, double[] best) {
+        if (lo >= hi) return;
+        int mid = (lo + hi) >>> 1;
+        int index = order[mid];
+        
+        double dx = points[0][index] - query[0];
+        double dy = points[1][index] - query[1];
+        double dz = points[2][index] - query[2];
+        double dist = dx * dx + dy * dy + dz * dz;
+        if (dist < best[0]) {
+            best[0] = dist;
+            best[1] = index;
+        }
+        
+        double diff = query[axis] - points[axis][index];
+        int next = (axis + 1) % 3;
+        if (diff < 0) {
+            search(lo, mid, next, query, best);
+            if (diff * diff < best[0]) search(mid + 1, hi, next, query, best);
+        } else {
+            search(mid + 1, hi, next, query, best);
+            if (diff * diff < best[0]) search(lo, mid, next, query, best);
+        }
+    }
+    
+    // Mengembalikan jadwal sholat untuk tempat terdekat dari koordinat GPS
+    public PrayerSchedule resolveSchedule(double latitude, double longitude) {
+        int index = nearest(latitude, longitude);
+        if (index < 0) return null;
+        return schedules.computeIfAbsent(index, i -> new PrayerSchedule(names[i]));
+    }
+    
+    // Arah kiblat (derajat dari utara, searah jarum jam) dari koordinat tertentu
+    public static double qiblaBearing(double latitude, double longitude) {
+        double lat = Math.toRadians(latitude);
+        double kaabaLat = Math.toRadians(KAABA_LAT);
+        double deltaLon = Math.toRadians(KAABA_LON - longitude);
+        double bearing = Math.atan2(Math.sin(deltaLon),
+                Math.cos(lat) * Math.tan(kaabaLat) - Math.sin(lat) * Math.cos(deltaLon));
+        return (Math.toDegrees(bearing) + 360.0) % 360.0;
+    }
+    
+    // Getter methods
+    public int size() { return names.length; }
+    public String getName(int index) { return names[index]; }
+    public double getLatitude(int index) { return latitudes[index]; }
+    public double getLongitude(int index) { return longitudes[index]; }
+}
+
+// Class untuk mengekspor jadwal sholat rentang tanggal ke CSV atau iCalendar
+// Baris ditulis bertahap melalui satu buffer ke channel, sehingga memori tetap konstan
+// berapa pun jumlah hari dan lokasi yang diekspor. Tidak thread-safe: buffer dan encoder
+// dipakai ulang, jadi satu instance hanya boleh menjalankan satu ekspor pada satu waktu.
+class ScheduleExporter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final StringBuilder line = new StringBuilder(256);
+    private WritableByteChannel channel;
+    private Clock clock = Clock.systemUTC();
+    
+    public void exportCsv(List<PrayerSchedule> schedules, LocalDate from, LocalDate to,
+                          WritableByteChannel channel) throws IOException {
+        this.channel = channel;
+        try {
+            line.append("location,date,prayer,arabic_name,time,rakaat\n");
+            write();
+            
+            for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+                for (PrayerSchedule schedule : schedules) {
+                    for (Prayer prayer : schedule.getDailyPrayers()) {
+                        appendCsvField(schedule.getLocation()).append(',');
+                        ICalendarWriter.appendDate(line, date, true).append(',');
+                        appendCsvField(prayer.getName()).append(',');
+                        appendCsvField(prayer.getArabicName()).append(',');
+                        ICalendarWriter.appendTime(line, prayer.getTime(), true).append(',');
+                        line.append(prayer.getRakaat()).append('\n');
+                        write();
+                    }
+                }
+            }
+            flush();
+        } finally {
+            reset();
+        }
+    }
+    
+    public void exportICalendar(List<PrayerSchedule> schedules, LocalDate from, LocalDate to,
+                                WritableByteChannel channel) throws IOException {
+        this.channel = channel;
+        try {
+            line.append(ICalendarWriter.HEADER);
+            write();
+            // DTSTAMP sama untuk semua event dalam satu ekspor
+            String stamp = ICalendarWriter.stamp(clock);
+            
+            for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+                for (PrayerSchedule schedule : schedules) {
+                    for (Prayer prayer : schedule.getDailyPrayers()) {
+                        ICalendarWriter.appendEvent(line, schedule, prayer, date, stamp);
+                        write();
+                    }
+                }
+            }
+            line.append(ICalendarWriter.FOOTER);
+            write();
+            flush();
+        } finally {
+            reset();
+        }
+    }
+    
+    private StringBuilder appendCsvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+            return line.append(value);
+        }
+        return line.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+    
+    // Setter untuk sumber waktu DTSTAMP (misalnya Clock.fixed untuk pengujian)
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+    
+    // Encode baris saat ini ke buffer; buffer ditulis ke channel setiap kali penuh
+    private void write() throws IOException {
+        CharBuffer chars = CharBuffer.wrap(line);
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, false);
+            if (result.isOverflow()) {
+                drain();
+            } else if (result.isUnderflow()) {
+                break;
+            } else {
+                result.throwException();
+            }
+        }
+        line.setLength(0);
+    }
+    
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+    
+    private void flush() throws IOException {
+        encoder.encode(CharBuffer.allocate(0), buffer, true);
+        encoder.flush(buffer);
+        drain();
+    }
+    
+    // Dipanggil setelah setiap ekspor, termasuk yang gagal di tengah jalan, agar byte
+    // sisa ekspor sebelumnya tidak ikut tertulis ke channel berikutnya
+    private void reset() {
+        line.setLength(0);
+        buffer.clear();
+        encoder.reset();
+        channel = null;
+    }
+}
+
+// Class tanggal Hijriah sederhana (immutable)
+class HijriDate {
+    private static final String[] MONTH_NAMES = {
+        "Muharram", "Safar", "Rabiul Awal", "Rabiul Akhir", "Jumadil Awal", "Jumadil Akhir",
+        "Rajab", "Syaban", "Ramadan", "Syawal", "Dzulqaidah", "Dzulhijjah"
+    };
+    
+    private final int year;
+    private final int month;
+    private final int day;
+    
+    public HijriDate(int year, int month, int day) {
+        this.year = year;
+        this.month = month;
+        this.day = day;
+    }
+    
+    public boolean isRamadan() { return month == 9; }
+    
+    // Getter methods
+    public int getYear() { return year; }
+    public int getMonth() { return month; }
+    public int getDay() { return day; }
+    public String getMonthName() { return MONTH_NAMES[month - 1]; }
+    
+    @Override
+    public String toString() {
+        return day + " " + getMonthName() + " " + year + " H";
+    }
+}
+
+// Class konversi Hijriah <-> Masehi berbasis tabel awal bulan yang dihitung sekali
+// Tabel diisi dari kalender Umm al-Qura bawaan JDK (HijrahChronology), lalu setiap
+// konversi cukup berupa perkiraan index bulan dan koreksi paling banyak satu langkah
+class HijriCalendar {
+    private static final double MEAN_MONTH_DAYS = 29.530588853;
+    
+    static final int MIN_YEAR;
+    static final int MAX_YEAR;
+    // monthStarts[i] = epoch day tanggal 1 bulan ke-i sejak MIN_YEAR; elemen terakhir = sentinel
+    private static final long[] MONTH_STARTS;
+    
+    static {
+        ValueRange years = HijrahChronology.INSTANCE.range(ChronoField.YEAR);
+        MIN_YEAR = (int) years.getMinimum();
+        MAX_YEAR = (int) years.getMaximum();
+        
+        int months = (MAX_YEAR - MIN_YEAR + 1) * 12;
+        MONTH_STARTS = new long[months + 1];
+        for (int i = 0; i < months; i++) {
+            MONTH_STARTS[i] = HijrahDate.of(MIN_YEAR + i / 12, i % 12 + 1, 1).toEpochDay();
+        }
+        HijrahDate last = HijrahDate.of(MAX_YEAR, 12, 1);
+        MONTH_STARTS[months] = last.toEpochDay() + last.lengthOfMonth();
+    }
+    
+    private HijriCalendar() {}
+    
+    public static HijriDate toHijri(LocalDate date) {
+        long epochDay = date.toEpochDay();
+        if (epochDay < MONTH_STARTS[0] || epochDay >= MONTH_STARTS[MONTH_STARTS.length - 1]) {
+            throw new IllegalArgumentException("Tanggal di luar jangkauan kalender Hijriah: " + date);
+        }
+        
+        int index = (int) ((epochDay - MONTH_STARTS[0]) / MEAN_MONTH_DAYS);
+        index = Math.min(index, MONTH_STARTS.length - 2);
+        while (MONTH_STARTS[index] > epochDay) index--;
+        while (MONTH_STARTS[index + 1] <= epochDay) index++;
+        
+        return new HijriDate(MIN_YEAR + index / 12, index % 12 + 1,
+                (int) (epochDay - MONTH_STARTS[index]) + 1);
+    }
+    
+    public static LocalDate toGregorian(int year, int month, int day) {
+        int length = lengthOfMonth(year, month);
+        if (day < 1 || day > length) {
+            throw new IllegalArgumentException("Tanggal Hijriah tidak valid: " + day + "/" + month + "/" + year
+                    + " (bulan ini " + length + " hari)");
+        }
+        return LocalDate.ofEpochDay(monthStart(year, month) + day - 1);
+    }
+    
+    // Apakah tanggal berada dalam jangkauan tabel kalender Hijriah
+    public static boolean isSupported(LocalDate date) {
+        long epochDay = date.toEpochDay();
+        return epochDay >= MONTH_STARTS[0] && epochDay < MONTH_STARTS[MONTH_STARTS.length - 1];
+    }
+    
+    public static int lengthOfMonth(int year, int month) {
+        int index = monthIndex(year, month);
+        return (int) (MONTH_STARTS[index + 1] - MONTH_STARTS[index]);
+    }
+    
+    public static boolean isRamadan(LocalDate date) {
+        return toHijri(date).isRamadan();
+    }
+    
+    private static long monthStart(int year, int month) {
+        return MONTH_STARTS[monthIndex(year, month)];
+    }
+    
+    private static int monthIndex(int year, int month) {
+        if (year < MIN_YEAR || year > MAX_YEAR || month < 1 || month > 12) {
+            throw new IllegalArgumentException("Bulan Hijriah tidak valid: " + month + "/" + year);
+        }
+        return (year - MIN_YEAR) * 12 + month - 1;
+    }
+}
+
+// Class untuk membuat jadwal imsakiyah Ramadan untuk banyak lokasi sekaligus
+// Waktu disimpan sebagai menit sejak tengah malam dalam array [lokasi][hari]
+class ImsakiyahGenerator {
+    public static final int DEFAULT_IMSAK_OFFSET = 10; // Imsak 10 menit sebelum Subuh
+    
+    private final int imsakOffsetMinutes;
+    
+    public ImsakiyahGenerator() {
+        this(DEFAULT_IMSAK_OFFSET);
+    }
+    
+    public ImsakiyahGenerator(int imsakOffsetMinutes) {
+        this.imsakOffsetMinutes = imsakOffsetMinutes;
+    }
+    
+    // Tabel hasil generate untuk satu bulan Ramadan
+    static class Table {
+        final int hijriYear;
+        final LocalDate[] dates;
+        final String[] locations;
+        final int[][] imsak;
+        final int[][] fajr;
+        final int[][] maghrib;
+        
+        Table(int hijriYear, LocalDate[] dates, String[] locations) {
+            this.hijriYear = hijriYear;
+            this.dates = dates;
+            this.locations = locations;
+            this.imsak = new int[locations.length][dates.length];
+            this.fajr = new int[locations.length][dates.length];
+            this.maghrib = new int[locations.length][dates.length];
+        }
+        
+        public LocalTime getImsak(int location, int day) { return toTime(imsak[location][day]); }
+        public LocalTime getFajr(int location, int day) { return toTime(fajr[location][day]); }
+        public LocalTime getMaghrib(int location, int day) { return toTime(maghrib[location][day]); }
+        public int getDays() { return dates.length; }
+        
+        public void display(int location) {
+            System.out.println("🌙 JADWAL IMSAKIYAH RAMADAN " + hijriYear + " H - " +
+                             locations[location].toUpperCase());
+            for (int day = 0; day < dates.length; day++) {
+                System.out.println(String.format("%2d Ramadan (%s)  Imsak %s  Subuh %s  Maghrib %s",
+                        day + 1, dates[day], getImsak(location, day).format(Prayer.TIME_FORMAT),
+                        getFajr(location, day).format(Prayer.TIME_FORMAT),
+                        getMaghrib(location, day).format(Prayer.TIME_FORMAT)));
+            }
+        }
+        
+        private static LocalTime toTime(int minutes) {
+            return LocalTime.of(minutes / 60, minutes % 60);
+        }
+    }
+    
+    public Table generate(List<PrayerSchedule> schedules, int hijriYear) {
+        int days = HijriCalendar.lengthOfMonth(hijriYear, 9);
+        LocalDate first = HijriCalendar.toGregorian(hijriYear, 9, 1);
+        LocalDate[] dates = new LocalDate[days];
+        for (int day = 0; day < days; day++) {
+            dates[day] = first.plusDays(day);
+        }
+        
+        String[] locations = new String[schedules.size()];
+        Table table = new Table(hijriYear, dates, locations);
+        
+        for (int loc = 0; loc < schedules.size(); loc++) {
+            PrayerSchedule schedule = schedules.get(loc);
+            locations[loc] = schedule.getLocation();
+            
+            int fajr = -1;
+            int maghrib = -1;
+            for (Prayer prayer : schedule.getDailyPrayers()) {
+                if (prayer instanceof Fajr) fajr = minutesOf(prayer.getTime());
+                else if (prayer instanceof Maghrib) maghrib = minutesOf(prayer.getTime());
+            }
+            if (fajr < 0 || maghrib < 0) {
+                throw new IllegalStateException("Jadwal " + schedule.getLocation() + " tidak memiliki Subuh/Maghrib");
+            }
+            
+            int imsak = Math.floorMod(fajr - imsakOffsetMinutes, 24 * 60);
+            Arrays.fill(table.imsak[loc], imsak);
+            Arrays.fill(table.fajr[loc], fajr);
+            Arrays.fill(table.maghrib[loc], maghrib);
+        }
+        return table;
+    }
+    
+    private static int minutesOf(LocalTime time) {
+        return time.getHour() * 60 + time.getMinute();
+    }
+}
+
+// Benchmark sederhana untuk operasi PrayerSchedule (tanpa dependensi eksternal)
+// Menjalankan setiap skenario dengan fase warmup lalu fase pengukuran, dan melaporkan
+// throughput (ops/detik) serta alokasi memori per operasi. Output println ditekan
+// selama pengukuran agar yang diukur adalah logika jadwal, bukan konsol. Hasil setiap
+// skenario disimpan ke sink agar JIT tidak bisa membuang pekerjaannya (dead code
+// elimination / escape analysis).
+// Jalankan: java -cp <output> PrayerScheduleBenchmark [jumlahLokasi]
+class PrayerScheduleBenchmark {
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long MEASURE_NANOS = 2_000_000_000L;
+    
+    private static Object sink; // menampung hasil skenario (benchmark ini satu thread)
+    
+    interface Scenario {
+        Object run(int iteration);
+    }
+    
+    public static void main(String[] args) {
+        int locations = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        
+        List<PrayerSchedule> schedules = new ArrayList<>();
+        for (int i = 0; i < locations; i++) {
+            PrayerSchedule schedule = new PrayerSchedule("Kota-" + i);
+            schedule.setClock(Clock.fixed(Instant.parse("2026-01-01T09:00:00Z"), ZoneOffset.UTC));
+            schedules.add(schedule);
+        }
+        PrayerSchedule single = schedules.get(0);
+        String[] names = {"Subuh", "Dzuhur", "Ashar", "Maghrib", "Isya"};
+        ScheduleRenderer renderer = new ScheduleRenderer();
+        LocalDate today = LocalDate.of(2026, 1, 1);
+        
+        PrintStream console = System.out;
+        console.println("Benchmark PrayerSchedule (" + locations + " lokasi)");
+        console.println(String.format("%-32s %15s %15s", "Skenario", "ops/detik", "byte/op"));
+        
+        PrayerSchedule[] built = new PrayerSchedule[locations];
+        
+        report(console, "construct.single", i -> new PrayerSchedule("Medan"));
+        report(console, "construct.multi", i -> {
+            for (int j = 0; j < locations; j++) built[j] = new PrayerSchedule("Kota-" + j);
+            return built;
+        });
+        report(console, "checkPrayerTimes.single", i -> {
+            single.checkPrayerTimes();
+            return single;
+        });
+        report(console, "checkPrayerTimes.multi", i -> {
+            for (PrayerSchedule schedule : schedules) schedule.checkPrayerTimes();
+            return schedules;
+        });
+        report(console, "markPrayerCompleted", i -> {
+            single.markPrayerCompleted(names[i % names.length]);
+            if (i % names.length == names.length - 1) single.resetDailyStatus();
+            return single;
+        });
+        report(console, "showProgress", i -> {
+            single.showProgress();
+            return single;
+        });
+        report(console, "displayTodaySchedule", i -> {
+            single.displayTodaySchedule();
+            return single;
+        });
+        report(console, "render.cached.json", i -> renderer.render(single, today, ScheduleRenderer.Format.JSON));
+    }
+    
+    private static void report(PrintStream console, String name, Scenario scenario) {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            measure(scenario, WARMUP_NANOS);
+            long[] result = measure(scenario, MEASURE_NANOS);
+            double opsPerSecond = result[0] * 1e9 / result[1];
+            long bytesPerOp = result[2] < 0 ? -1 : result[2] / Math.max(1, result[0]);
+            console.println(String.format("%-32s %15.0f %15d", name, opsPerSecond, bytesPerOp));
+        } finally {
+            System.setOut(console);
+        }
+    }
+    
+    // Mengembalikan {jumlah operasi, durasi nano, byte teralokasi (-1 jika tidak didukung)}
+    private static long[] measure(Scenario scenario, long durationNanos) {
+        long startBytes = allocatedBytes();
+        long start = System.nanoTime();
+        long end = start;
+        long ops = 0;
+        while (end - start < durationNanos) {
+            for (int i = 0; i < 1000; i++) {
+                sink = scenario.run((int) ops++);
+            }
+            end = System.nanoTime();
+        }
+        long bytes = startBytes < 0 ? -1 : allocatedBytes() - startBytes;
+        return new long[] {ops, end - start, bytes};
+    }
+    
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
 }
 
 // Main class untuk menjalankan aplikasi
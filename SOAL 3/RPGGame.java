@@ -1,15 +1,122 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InvalidAttributeValueException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
 
 // Interface untuk berbagai skill yang bisa dimiliki karakter
+// Implementasi tidak boleh menyimpan state per karakter: satu instance dipakai bersama
+// (lihat SkillRegistry), sedangkan cooldown disimpan di slot skill milik Character
 interface Skill {
     /**
      * Method untuk menggunakan skill
      * @param target karakter target (bisa null untuk self-buff)
+     * @param random sumber angka acak untuk roll damage/healing
      * @return damage atau healing yang dihasilkan
      */
-    int useSkill(Character target);
+    int useSkill(Character target, RandomSource random);
+    
+    /**
+     * Method untuk menggunakan skill dengan sumber acak default (thread-local)
+     */
+    default int useSkill(Character target) {
+        return useSkill(target, RandomSource.threadLocal());
+    }
+    
+    /**
+     * Method untuk menggunakan skill dengan pengguna diketahui (formula bisa memakai stat pengguna)
+     * @param user karakter yang menggunakan skill (bisa null)
+     */
+    default int useSkill(Character user, Character target, RandomSource random) {
+        return useSkill(target, random);
+    }
     
     /**
      * Method untuk mendapatkan nama skill
@@ -27,589 +134,6158 @@ interface Skill {
     int getManaCost();
     
     /**
-     * Method untuk mengecek cooldown
+     * Method untuk mendapatkan durasi cooldown dalam tick game
+     */
+    int getCooldownTicks();
+    
+    /**
+     * Method untuk mendapatkan nilai dasar damage/healing sebelum roll acak
+     * (sesuai formula bawaan; dipakai AI untuk memperkirakan hasil skill)
+     */
+    default int getBaseValue() { return 0; }
+    
+    /**
+     * Method untuk mendapatkan rentang roll acak [0, range) yang ditambahkan ke nilai dasar
+     */
+    default int getValueRange() { return 0; }
+    
+    /**
+     * Method untuk mengecek apakah skill ditujukan ke diri sendiri/kawan (heal, buff)
+     */
+    default boolean isSupportive() { return false; }
+    
+    /**
+     * Method untuk mendapatkan area efek skill (null = hanya satu target)
+     */
+    default Area getArea() { return null; }
+    
+    /**
+     * Method untuk mengecek apakah skill punya nilai per target (rollValue + applyValue);
+     * skill tanpa nilai (misalnya buff) diterapkan lewat useSkill
+     */
+    default boolean hasValue() { return false; }
+    
+    /**
+     * Method untuk menghitung damage/healing terhadap satu target tanpa menerapkannya
+     * (dipakai resolusi AoE; harus aman dipanggil dari banyak thread dengan random masing-masing)
+     * Hanya dipanggil jika hasValue() true
+     * @return nilai skill
      */
-    boolean isOnCooldown();
+    default int rollValue(Character user, Character target, RandomSource random) { return 0; }
     
     /**
-     * Method untuk reset cooldown
+     * Method untuk menerapkan nilai hasil rollValue ke satu target beserta efek samping skill
+     * (pesan, debuff); dipakai bersama oleh useSkill dan resolusi AoE di thread pemanggil
+     * @return nilai yang diterapkan
      */
-    void resetCooldown();
+    default int applyValue(Character user, Character target, int value) {
+        if (target != null) {
+            if (isSupportive()) {
+                target.heal(value);
+            } else {
+                target.takeDamage(value);
+            }
+        }
+        return value;
+    }
 }
 
-// Abstract class Character sebagai parent untuk semua karakter
-abstract class Character {
-    // Protected agar bisa diakses oleh subclass
-    protected String name;
-    protected int level;
-    protected int health;
-    protected int maxHealth;
-    protected int mana;
-    protected int maxMana;
-    protected int attack;
-    protected int defense;
-    protected int experience;
-    protected List<Skill> skills;
-    protected boolean isAlive;
+// Bentuk area efek skill: lingkaran berpusat di target utama, atau kerucut dari posisi
+// pengguna ke arah target utama. Immutable sehingga dipakai bersama seperti definisi skill.
+final class Area {
+    enum Shape { RADIUS, CONE }
     
-    // Constructor untuk inisialisasi karakter dasar
-    public Character(String name, int health, int mana, int attack, int defense) {
-        this.name = name;
-        this.level = 1;
-        this.health = health;
-        this.maxHealth = health;
-        this.mana = mana;
-        this.maxMana = mana;
-        this.attack = attack;
-        this.defense = defense;
-        this.experience = 0;
-        this.skills = new ArrayList<>();
-        this.isAlive = true;
+    private final Shape shape;
+    private final float range;
+    private final float cosHalfAngle;
+    
+    private Area(Shape shape, float range, float cosHalfAngle) {
+        this.shape = shape;
+        this.range = range;
+        this.cosHalfAngle = cosHalfAngle;
     }
     
-    // Method abstract yang harus diimplementasikan oleh setiap subclass
-    public abstract void useSpecialAbility(Character target);
-    public abstract String getCharacterClass();
-    public abstract void levelUp();
+    static Area radius(float radius) {
+        return new Area(Shape.RADIUS, radius, -1);
+    }
     
-    // Method untuk basic attack
-    public int basicAttack(Character target) {
-        if (!this.isAlive || !target.isAlive) {
-            System.out.println("Cannot attack - one of the characters is dead");
-            return 0;
-        }
-        
-        Random rand = new Random();
-        int damage = this.attack + rand.nextInt(10) - target.defense;
-        damage = Math.max(1, damage); // Minimum 1 damage
-        
-        target.takeDamage(damage);
-        System.out.println(this.name + " attacks " + target.name + " for " + damage + " damage");
-        
-        return damage;
+    // Kerucut dengan sudut buka total (derajat)
+    static Area cone(float range, float degrees) {
+        return new Area(Shape.CONE, range, (float) Math.cos(Math.toRadians(degrees / 2)));
     }
     
-    // Method untuk menerima damage
-    public void takeDamage(int damage) {
-        this.health -= damage;
-        if (this.health <= 0) {
-            this.health = 0;
-            this.isAlive = false;
-            System.out.println(this.name + " has been defeated!");
+    // Getter methods
+    public Shape getShape() { return shape; }
+    public float getRange() { return range; }
+    public float getCosHalfAngle() { return cosHalfAngle; }
+}
+
+// Registry definisi skill (flyweight)
+// Definisi skill tidak menyimpan state sehingga satu instance dipakai bersama oleh semua
+// karakter; karakter hanya menyimpan id skill dan tick cooldown per slot.
+// Id juga menjadi format skill di snapshot, jadi urutan skill bawaan tidak boleh berubah.
+final class SkillRegistry {
+    static final int POWER_STRIKE = 0;
+    static final int DEFENSIVE_STANCE = 1;
+    static final int FIREBALL = 2;
+    static final int HEAL = 3;
+    static final int PRECISION_SHOT = 4;
+    static final int MAX_SKILLS = 256; // id disimpan dalam 1 byte
+    private static final int BUILT_IN_COUNT = 5;
+    
+    private static volatile Skill[] definitions = {
+        new PowerStrike(), new DefensiveStance(), new Fireball(), new Heal(), new PrecisionShot()
+    };
+    
+    private SkillRegistry() {}
+    
+    static Skill get(int id) {
+        Skill[] current = definitions;
+        if (id < 0 || id >= current.length) {
+            throw new IllegalArgumentException("Unknown skill id: " + id);
         }
+        return current[id];
     }
     
-    // Method untuk healing
-    public void heal(int amount) {
-        this.health += amount;
-        if (this.health > this.maxHealth) {
-            this.health = this.maxHealth;
+    // Id definisi skill. Skill bawaan tidak punya konfigurasi sehingga instance baru dari
+    // class-nya dianggap definisi yang sama; skill custom dicocokkan per instance karena
+    // dua instance dari class yang sama bisa dikonfigurasi berbeda
+    static int idOf(Skill skill) {
+        Skill[] current = definitions;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == skill) return i;
+        }
+        for (int i = 0; i < BUILT_IN_COUNT; i++) {
+            if (current[i].getClass() == skill.getClass()) return i;
         }
-        System.out.println(this.name + " heals for " + amount + " HP");
+        return -1;
     }
     
-    // Method untuk menggunakan mana
-    public boolean useMana(int cost) {
-        if (this.mana >= cost) {
-            this.mana -= cost;
-            return true;
+    // Mendaftarkan skill custom; instance yang sudah terdaftar mengembalikan id lamanya.
+    // Skill custom sebaiknya dibuat sekali lalu dipakai bersama (flyweight), karena setiap
+    // instance baru mendapat id sendiri
+    static synchronized int register(Skill skill) {
+        int id = idOf(skill);
+        if (id >= 0) return id;
+        if (definitions.length == MAX_SKILLS) {
+            throw new IllegalStateException("Skill registry is full");
         }
-        System.out.println(this.name + " doesn't have enough mana");
-        return false;
+        Skill[] next = Arrays.copyOf(definitions, definitions.length + 1);
+        next[definitions.length] = skill;
+        definitions = next;
+        return definitions.length - 1;
     }
     
-    // Method untuk restore mana
-    public void restoreMana(int amount) {
-        this.mana += amount;
-        if (this.mana > this.maxMana) {
-            this.mana = this.maxMana;
+    static int size() { return definitions.length; }
+    
+    // Lookup berdasarkan nama (misalnya dari detail CombatEvent); null jika tidak dikenal
+    static Skill byName(String name) {
+        for (Skill skill : definitions) {
+            if (skill.getSkillName().equals(name)) return skill;
         }
+        return null;
     }
+}
+
+// Listener yang dipanggil saat cooldown skill selesai
+interface CooldownListener {
+    void onCooldownReady(Character owner, Skill skill);
+}
+
+// Hierarchical timing wheel untuk cooldown, di-key dengan tick game
+// 4 level x 64 slot; setiap level mencakup 64 kali rentang level di bawahnya.
+// Cooldown yang jauh disimpan di level atas dan diturunkan (cascade) saat waktunya
+// mendekat, sehingga advance() hanya menyentuh entry yang benar-benar habis.
+class CooldownWheel {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
     
-    // Method untuk menambah skill
-    public void addSkill(Skill skill) {
-        this.skills.add(skill);
-        System.out.println(this.name + " learned " + skill.getSkillName());
+    private static final class Node {
+        Character owner;
+        int slot;
+        long expiry;
+        Node next;
     }
     
-    // Method untuk menggunakan skill berdasarkan index
-    public void useSkill(int skillIndex, Character target) {
-        if (skillIndex < 0 || skillIndex >= skills.size()) {
-            System.out.println("Invalid skill index");
-            return;
-        }
+    private final Node[][] slots = new Node[LEVELS][SLOTS];
+    private final CooldownListener listener;
+    private Node overflow;   // entry dengan jarak melebihi jangkauan level tertinggi
+    private Node free;       // node bekas yang dipakai ulang agar tidak membuat sampah
+    private long currentTick;
+    private int pending;
+    
+    public CooldownWheel() {
+        this(null);
+    }
+    
+    public CooldownWheel(CooldownListener listener) {
+        this.listener = listener;
+    }
+    
+    public long currentTick() { return currentTick; }
+    
+    public int getPending() { return pending; }
+    
+    // Menjadwalkan notifikasi saat cooldown habis; tanpa listener tidak ada yang perlu dilacak
+    void schedule(Character owner, int skillSlot, long expiry) {
+        if (listener == null) return;
         
-        Skill skill = skills.get(skillIndex);
-        if (skill.isOnCooldown()) {
-            System.out.println(skill.getSkillName() + " is on cooldown");
-            return;
+        Node node = free;
+        if (node != null) {
+            free = node.next;
+        } else {
+            node = new Node();
         }
-        
-        if (useMana(skill.getManaCost())) {
-            int result = skill.useSkill(target);
-            System.out.println(this.name + " uses " + skill.getSkillName() + 
-                             (result > 0 ? " dealing " + result + " damage/healing" : ""));
+        node.owner = owner;
+        node.slot = skillSlot;
+        node.expiry = Math.max(expiry, currentTick + 1);
+        insert(node);
+        pending++;
+    }
+    
+    // Saat cascade, entry yang jatuh tempo pada tick ini (delta 0) masuk ke slot level 0
+    // yang akan diproses tepat setelah cascade selesai
+    private void insert(Node node) {
+        long delta = node.expiry - currentTick;
+        for (int level = 0; level < LEVELS; level++) {
+            if (delta < 1L << (BITS * (level + 1))) {
+                int slot = (int) (node.expiry >>> (BITS * level)) & MASK;
+                node.next = slots[level][slot];
+                slots[level][slot] = node;
+                return;
+            }
         }
+        node.next = overflow;
+        overflow = node;
     }
     
-    // Method untuk menampilkan status karakter
-    public void displayStatus() {
-        System.out.println("=== " + name + " (" + getCharacterClass() + ") ===");
-        System.out.println("Level: " + level);
-        System.out.println("Health: " + health + "/" + maxHealth);
-        System.out.println("Mana: " + mana + "/" + maxMana);
-        System.out.println("Attack: " + attack);
-        System.out.println("Defense: " + defense);
-        System.out.println("Experience: " + experience);
-        System.out.println("Status: " + (isAlive ? "Alive" : "Dead"));
+    // Memajukan waktu satu tick dan memproses cooldown yang habis pada tick tersebut
+    public void advance() {
+        currentTick++;
         
-        if (!skills.isEmpty()) {
-            System.out.println("Skills:");
-            for (int i = 0; i < skills.size(); i++) {
-                System.out.println("  " + (i + 1) + ". " + skills.get(i).getSkillName() + 
-                                 " (Cost: " + skills.get(i).getManaCost() + " MP)");
+        // Cascade: saat level di bawahnya kembali ke slot 0, turunkan slot level atas
+        for (int level = 1; level <= LEVELS; level++) {
+            if ((currentTick & ((1L << (BITS * level)) - 1)) != 0) break;
+            Node list;
+            if (level == LEVELS) {
+                list = overflow;
+                overflow = null;
+            } else {
+                int slot = (int) (currentTick >>> (BITS * level)) & MASK;
+                list = slots[level][slot];
+                slots[level][slot] = null;
+            }
+            while (list != null) {
+                Node next = list.next;
+                insert(list);
+                list = next;
+            }
+        }
+        
+        int slot = (int) currentTick & MASK;
+        Node list = slots[0][slot];
+        slots[0][slot] = null;
+        while (list != null) {
+            Node next = list.next;
+            if (list.owner.isSkillReadyAt(this, list.slot, currentTick)) {
+                listener.onCooldownReady(list.owner, list.owner.getSkill(list.slot));
             }
+            release(list);
+            list = next;
         }
     }
     
-    // Method untuk menambah experience
-    public void gainExperience(int exp) {
-        this.experience += exp;
-        System.out.println(this.name + " gains " + exp + " experience");
-        
-        // Check for level up
-        if (this.experience >= this.level * 100) {
-            levelUp();
+    public void advanceTo(long tick) {
+        while (currentTick < tick) {
+            advance();
+        }
+    }
+    
+    // Mengosongkan wheel dan kembali ke tick 0 (dipakai ulang antar pertarungan)
+    public void reset() {
+        for (Node[] level : slots) {
+            for (int i = 0; i < SLOTS; i++) {
+                for (Node node = level[i]; node != null; ) {
+                    Node next = node.next;
+                    release(node);
+                    node = next;
+                }
+                level[i] = null;
+            }
+        }
+        for (Node node = overflow; node != null; ) {
+            Node next = node.next;
+            release(node);
+            node = next;
         }
+        overflow = null;
+        currentTick = 0;
+    }
+    
+    private void release(Node node) {
+        node.owner = null;
+        node.next = free;
+        free = node;
+        pending--;
+    }
+}
+
+// Status effect berwaktu: modifier attack/defense, shield, dan damage-over-time
+class StatusEffect {
+    enum Kind { ATTACK, DEFENSE, ABSORB_SHIELD, MANA_SHIELD, DAMAGE_OVER_TIME }
+    
+    private final String name;
+    private final Kind kind;
+    private final int amount;        // bonus flat, kapasitas shield, atau damage per tick
+    private final int percent;       // bonus persen untuk ATTACK/DEFENSE (100 = dua kali lipat)
+    private final int durationTicks;
+    
+    Character owner;
+    long expiresAt = Long.MAX_VALUE;
+    int remaining;                   // sisa kapasitas shield
+    boolean removed;
+    
+    public StatusEffect(String name, Kind kind, int amount, int percent, int durationTicks) {
+        this.name = name;
+        this.kind = kind;
+        this.amount = amount;
+        this.percent = percent;
+        this.durationTicks = durationTicks;
+        this.remaining = amount;
+    }
+    
+    public static StatusEffect attack(String name, int amount, int percent, int durationTicks) {
+        return new StatusEffect(name, Kind.ATTACK, amount, percent, durationTicks);
+    }
+    
+    public static StatusEffect defense(String name, int amount, int percent, int durationTicks) {
+        return new StatusEffect(name, Kind.DEFENSE, amount, percent, durationTicks);
+    }
+    
+    public static StatusEffect shield(String name, int capacity, boolean consumesMana, int durationTicks) {
+        return new StatusEffect(name, consumesMana ? Kind.MANA_SHIELD : Kind.ABSORB_SHIELD,
+                capacity, 0, durationTicks);
+    }
+    
+    public static StatusEffect damageOverTime(String name, int damagePerTick, int durationTicks) {
+        return new StatusEffect(name, Kind.DAMAGE_OVER_TIME, damagePerTick, 0, durationTicks);
     }
     
     // Getter methods
     public String getName() { return name; }
-    public int getLevel() { return level; }
-    public int getHealth() { return health; }
-    public int getMaxHealth() { return maxHealth; }
-    public int getMana() { return mana; }
-    public int getMaxMana() { return maxMana; }
-    public int getAttack() { return attack; }
-    public int getDefense() { return defense; }
-    public boolean isAlive() { return isAlive; }
-    public List<Skill> getSkills() { return skills; }
+    public Kind getKind() { return kind; }
+    public int getAmount() { return amount; }
+    public int getPercent() { return percent; }
+    public int getDurationTicks() { return durationTicks; }
+    public long getExpiresAt() { return expiresAt; }
+    public boolean isActive() { return !removed; }
 }
 
-// Implementasi skill untuk Warrior
-class PowerStrike implements Skill {
-    private boolean onCooldown = false;
+// Kumpulan status effect aktif milik satu karakter
+// Attack/defense efektif di-cache dan hanya dihitung ulang saat set effect berubah
+// (atau stat dasar berubah, misalnya setelah level up)
+class StatusEffects {
+    private final List<StatusEffect> active = new ArrayList<>(4);
+    private boolean dirty = true;
+    private int baseAttack;
+    private int baseDefense;
+    private int effectiveAttack;
+    private int effectiveDefense;
     
-    @Override
-    public int useSkill(Character target) {
-        Random rand = new Random();
-        int damage = 50 + rand.nextInt(20);
-        if (target != null) {
-            target.takeDamage(damage);
+    void add(StatusEffect effect) {
+        active.add(effect);
+        dirty = true;
+    }
+    
+    void remove(StatusEffect effect) {
+        effect.removed = true;
+        if (active.remove(effect)) {
+            dirty = true;
+        }
+    }
+    
+    int attack(int base) {
+        if (dirty || base != baseAttack) recompute(base, baseDefense);
+        return effectiveAttack;
+    }
+    
+    int defense(int base) {
+        if (dirty || base != baseDefense) recompute(baseAttack, base);
+        return effectiveDefense;
+    }
+    
+    private void recompute(int attack, int defense) {
+        int attackFlat = 0, attackPercent = 0, defenseFlat = 0, defensePercent = 0;
+        for (int i = 0; i < active.size(); i++) {
+            StatusEffect effect = active.get(i);
+            if (effect.getKind() == StatusEffect.Kind.ATTACK) {
+                attackFlat += effect.getAmount();
+                attackPercent += effect.getPercent();
+            } else if (effect.getKind() == StatusEffect.Kind.DEFENSE) {
+                defenseFlat += effect.getAmount();
+                defensePercent += effect.getPercent();
+            }
+        }
+        baseAttack = attack;
+        baseDefense = defense;
+        effectiveAttack = Math.max(0, (attack + attackFlat) * (100 + attackPercent) / 100);
+        effectiveDefense = Math.max(0, (defense + defenseFlat) * (100 + defensePercent) / 100);
+        dirty = false;
+    }
+    
+    // Shield menyerap damage lebih dulu; mengembalikan sisa damage untuk health
+    int absorb(Character owner, int damage) {
+        for (int i = 0; i < active.size() && damage > 0; i++) {
+            StatusEffect effect = active.get(i);
+            StatusEffect.Kind kind = effect.getKind();
+            if (kind != StatusEffect.Kind.ABSORB_SHIELD && kind != StatusEffect.Kind.MANA_SHIELD) continue;
+            
+            int absorbed = Math.min(damage, effect.remaining);
+            if (kind == StatusEffect.Kind.MANA_SHIELD) {
+                absorbed = Math.min(absorbed, owner.mana);
+                owner.mana -= absorbed;
+            }
+            effect.remaining -= absorbed;
+            damage -= absorbed;
+            if (effect.remaining <= 0 || (kind == StatusEffect.Kind.MANA_SHIELD && owner.mana == 0)) {
+                effect.removed = true;
+                active.remove(i--);
+            }
         }
-        onCooldown = true;
         return damage;
     }
     
+    boolean hasShield() {
+        for (int i = 0; i < active.size(); i++) {
+            StatusEffect.Kind kind = active.get(i).getKind();
+            if (kind == StatusEffect.Kind.ABSORB_SHIELD || kind == StatusEffect.Kind.MANA_SHIELD) return true;
+        }
+        return false;
+    }
+    
+    List<StatusEffect> getActive() { return active; }
+}
+
+// Mesin status effect per world/pertarungan
+// Kedaluwarsa dilacak dengan priority queue berdasarkan tick berakhir, sehingga setiap
+// tick hanya memproses effect yang habis; damage-over-time diproses dari daftar terpisah
+class StatusEffectEngine {
+    private final PriorityQueue<StatusEffect> expiries =
+            new PriorityQueue<>(Comparator.comparingLong(StatusEffect::getExpiresAt));
+    private final List<StatusEffect> damageOverTime = new ArrayList<>();
+    private long currentTick;
+    
+    public long currentTick() { return currentTick; }
+    
+    void register(StatusEffect effect) {
+        effect.expiresAt = currentTick + effect.getDurationTicks();
+        expiries.add(effect);
+        if (effect.getKind() == StatusEffect.Kind.DAMAGE_OVER_TIME) {
+            damageOverTime.add(effect);
+        }
+    }
+    
+    // Memajukan satu tick: damage-over-time diterapkan, lalu effect yang habis dilepas
+    public void advance() {
+        currentTick++;
+        
+        for (int i = 0; i < damageOverTime.size(); i++) {
+            StatusEffect effect = damageOverTime.get(i);
+            if (effect.removed || !effect.owner.isAlive()) {
+                damageOverTime.set(i, damageOverTime.get(damageOverTime.size() - 1));
+                damageOverTime.remove(damageOverTime.size() - 1);
+                i--;
+                continue;
+            }
+            effect.owner.takeDamage(effect.getAmount());
+        }
+        
+        while (!expiries.isEmpty() && expiries.peek().getExpiresAt() <= currentTick) {
+            StatusEffect effect = expiries.poll();
+            if (!effect.removed) {
+                effect.owner.removeStatusEffect(effect);
+            }
+        }
+    }
+    
+    // Mengosongkan engine dan kembali ke tick 0 (dipakai ulang antar pertarungan)
+    public void reset() {
+        expiries.clear();
+        damageOverTime.clear();
+        currentTick = 0;
+    }
+    
+    public int getActiveCount() { return expiries.size(); }
+}
+
+// Abstraksi sumber angka acak untuk semua perhitungan combat
+// Satu instance dipakai berulang sehingga jalur combat tidak mengalokasi Random baru,
+// dan sumber dengan seed yang sama menghasilkan pertarungan yang identik
+interface RandomSource {
+    /**
+     * Mengembalikan angka acak dalam rentang [0, bound)
+     */
+    int nextInt(int bound);
+    
+    /**
+     * Membuat sumber acak turunan yang independen (untuk pertarungan/thread lain)
+     */
+    RandomSource split();
+    
+    /**
+     * Sumber acak bersama berbasis ThreadLocalRandom, aman dipakai dari banyak thread
+     */
+    static RandomSource threadLocal() {
+        return ThreadLocalRandomSource.INSTANCE;
+    }
+    
+    /**
+     * Sumber acak deterministik dengan seed eksplisit (tidak thread-safe)
+     */
+    static RandomSource seeded(long seed) {
+        return new SeededRandomSource(new SplittableRandom(seed));
+    }
+}
+
+class ThreadLocalRandomSource implements RandomSource {
+    static final ThreadLocalRandomSource INSTANCE = new ThreadLocalRandomSource();
+    
+    private ThreadLocalRandomSource() {}
+    
     @Override
-    public String getSkillName() { return "Power Strike"; }
+    public int nextInt(int bound) { return ThreadLocalRandom.current().nextInt(bound); }
     
     @Override
-    public String getDescription() { return "A powerful attack that deals massive damage"; }
+    public RandomSource split() { return RandomSource.seeded(ThreadLocalRandom.current().nextLong()); }
+}
+
+class SeededRandomSource implements RandomSource {
+    private final SplittableRandom random;
+    
+    SeededRandomSource(SplittableRandom random) {
+        this.random = random;
+    }
     
     @Override
-    public int getManaCost() { return 20; }
+    public int nextInt(int bound) { return random.nextInt(bound); }
     
     @Override
-    public boolean isOnCooldown() { return onCooldown; }
+    public RandomSource split() { return new SeededRandomSource(random.split()); }
+}
+
+// Event combat terstruktur; instance dialokasikan sekali di ring buffer lalu dipakai ulang
+class CombatEvent {
+    enum Type { ATTACK, DEFEAT, HEAL, SKILL, EXPERIENCE, LEVEL_UP }
+    
+    Type type;
+    Character source;
+    Character target;
+    String detail;   // nama skill atau teks level up (selalu string konstan, tanpa alokasi)
+    int value;       // damage, healing, experience, atau level baru
+    long sequence;
+    
+    // Getter methods
+    public Type getType() { return type; }
+    public Character getSource() { return source; }
+    public Character getTarget() { return target; }
+    public String getDetail() { return detail; }
+    public int getValue() { return value; }
+    public long getSequence() { return sequence; }
+    
+    public String format() {
+        return format(type, source, target, detail, value);
+    }
+    
+    // Teks konsol untuk setiap jenis event (sama dengan output combat sebelumnya)
+    static String format(Type type, Character source, Character target, String detail, int value) {
+        switch (type) {
+            case ATTACK:
+                return source.getName() + " attacks " + target.getName() + " for " + value + " damage";
+            case DEFEAT:
+                return source.getName() + " has been defeated!";
+            case HEAL:
+                return source.getName() + " heals for " + value + " HP";
+            case SKILL:
+                return source.getName() + " uses " + detail +
+                       (value > 0 ? " dealing " + value + " damage/healing" : "");
+            case EXPERIENCE:
+                return source.getName() + " gains " + value + " experience";
+            case LEVEL_UP:
+                return source.getName() + " leveled up to level " + value + "!" +
+                       System.lineSeparator() + detail;
+            default:
+                throw new IllegalStateException("Unknown event type: " + type);
+        }
+    }
+}
+
+// Consumer event combat
+interface CombatEventSink {
+    void onEvent(CombatEvent event);
+    
+    CombatEventSink NO_OP = event -> { };
+}
+
+// Sink yang mencetak event ke konsol dengan format lama
+class ConsoleEventSink implements CombatEventSink {
+    @Override
+    public void onEvent(CombatEvent event) {
+        System.out.println(event.format());
+    }
+}
+
+// Sink yang menghitung jumlah event per jenis dan total nilainya
+class MetricsEventSink implements CombatEventSink {
+    private final long[] counts = new long[CombatEvent.Type.values().length];
+    private final long[] totals = new long[CombatEvent.Type.values().length];
+    
+    @Override
+    public void onEvent(CombatEvent event) {
+        counts[event.type.ordinal()]++;
+        totals[event.type.ordinal()] += event.value;
+    }
+    
+    public long getCount(CombatEvent.Type type) { return counts[type.ordinal()]; }
+    public long getTotal(CombatEvent.Type type) { return totals[type.ordinal()]; }
+}
+
+// Sink yang menulis event sebagai record biner 26 byte ke channel
+// Format: sequence(8) type(1) flags(1) value(4) sourceId(4) targetId(4) detailHash(4);
+// id karakter memakai identity hash, cukup untuk korelasi dalam satu sesi
+class BinaryLogEventSink implements CombatEventSink {
+    static final int RECORD_SIZE = 26;
+    
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE * 4096);
+    
+    public BinaryLogEventSink(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+    
+    @Override
+    public void onEvent(CombatEvent event) {
+        if (buffer.remaining() < RECORD_SIZE) {
+            flush();
+        }
+        buffer.putLong(event.sequence)
+              .put((byte) event.type.ordinal())
+              .put((byte) (event.target != null ? 1 : 0))
+              .putInt(event.value)
+              .putInt(System.identityHashCode(event.source))
+              .putInt(event.target != null ? System.identityHashCode(event.target) : 0)
+              .putInt(event.detail != null ? event.detail.hashCode() : 0);
+    }
+    
+    public void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.clear();
+        }
+    }
+}
+
+// Event bus combat berbasis ring buffer yang dialokasikan di awal
+// Satu thread penulis (thread simulasi) mempublikasikan event tanpa lock dan tanpa
+// alokasi; jika consumer tertinggal dan buffer penuh, event dibuang (dihitung) alih-alih
+// memblokir simulasi. Consumer membaca lewat drain() atau thread background.
+class CombatEventBus {
+    private final CombatEvent[] ring;
+    private final int mask;
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final List<CombatEventSink> sinks = new CopyOnWriteArrayList<>();
+    private long writeSequence;      // hanya diakses thread penulis
+    private long dropped;            // hanya diakses thread penulis
+    private volatile Thread consumer;
+    
+    public CombatEventBus(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new CombatEvent[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            ring[i] = new CombatEvent();
+        }
+    }
+    
+    public void addSink(CombatEventSink sink) {
+        sinks.add(sink);
+    }
+    
+    public void removeSink(CombatEventSink sink) {
+        sinks.remove(sink);
+    }
+    
+    // Dipanggil hanya dari satu thread penulis
+    public void publish(CombatEvent.Type type, Character source, Character target, String detail, int value) {
+        long sequence = writeSequence;
+        if (sequence - consumed.get() >= ring.length) {
+            dropped++;
+            return;
+        }
+        CombatEvent event = ring[(int) sequence & mask];
+        event.type = type;
+        event.source = source;
+        event.target = target;
+        event.detail = detail;
+        event.value = value;
+        event.sequence = sequence;
+        writeSequence = sequence + 1;
+        published.lazySet(sequence + 1);
+    }
+    
+    // Meneruskan semua event yang sudah dipublikasikan ke sink; mengembalikan jumlahnya
+    public int drain() {
+        long start = consumed.get();
+        long end = published.get();
+        for (long sequence = start; sequence < end; sequence++) {
+            CombatEvent event = ring[(int) sequence & mask];
+            for (CombatEventSink sink : sinks) {
+                sink.onEvent(event);
+            }
+        }
+        consumed.lazySet(end);
+        return (int) (end - start);
+    }
+    
+    // Menjalankan consumer di thread daemon terpisah
+    public void startConsumer() {
+        Thread thread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (drain() == 0) {
+                    LockSupport.parkNanos(100_000);
+                }
+            }
+            drain();
+        }, "combat-event-consumer");
+        thread.setDaemon(true);
+        consumer = thread;
+        thread.start();
+    }
+    
+    public void stopConsumer() throws InterruptedException {
+        Thread thread = consumer;
+        if (thread != null) {
+            thread.interrupt();
+            thread.join();
+            consumer = null;
+        }
+    }
+    
+    public long getDropped() { return dropped; }
+    public int getCapacity() { return ring.length; }
+}
+
+// Saklar output konsol game: global untuk entry point, atau per thread
+// Simulasi massal menekan output di thread worker agar logika combat tidak terhambat println
+class GameOutput {
+    private static volatile boolean enabled = true;
+    // Kedalaman suppress() per thread; output thread lain tidak terpengaruh
+    private static final ThreadLocal<int[]> SUPPRESSED = ThreadLocal.withInitial(() -> new int[1]);
+    
+    private GameOutput() {}
+    
+    public static boolean isEnabled() { return enabled && SUPPRESSED.get()[0] == 0; }
+    
+    // Flag global, hanya untuk entry point (main); kode library memakai suppress()/resume()
+    public static void setEnabled(boolean value) { enabled = value; }
+    
+    // Menekan output hanya di thread saat ini sampai resume() (boleh bersarang), sehingga
+    // simulasi/replay yang berjalan bersamaan tidak saling mematikan output
+    public static void suppress() { SUPPRESSED.get()[0]++; }
+    
+    public static void resume() { SUPPRESSED.get()[0]--; }
+    
+    public static void println(String message) {
+        if (isEnabled()) {
+            System.out.println(message);
+        }
+    }
+}
+
+// Abstract class Character sebagai parent untuk semua karakter
+abstract class Character {
+    // Protected agar bisa diakses oleh subclass
+    protected String name;
+    protected int level;
+    protected int health;
+    protected int maxHealth;
+    protected int mana;
+    protected int maxMana;
+    protected int attack;
+    protected int defense;
+    protected int experience;
+    protected long skillSlots;      // id skill per slot, 8 bit per slot
+    protected int skillCount;
+    protected int manualCooldowns;  // bitmask slot dengan cooldown manual (tanpa wheel)
+    protected long[] readyTicks;    // tick siap per slot, dibuat saat cooldown pertama dimulai
+    protected boolean isAlive;
+    protected RandomSource random = RandomSource.threadLocal();
+    protected CooldownWheel cooldownWheel; // null = cooldown manual sampai resetCooldown()
+    protected StatusEffects statusEffects;   // dibuat saat effect pertama dipasang
+    protected StatusEffectEngine effectEngine; // null = effect tidak kedaluwarsa otomatis
+    protected CombatEventBus events;           // null = event langsung dicetak ke konsol
+    protected LootSystem loot;                 // null = tidak ada drop saat kalah
+    protected boolean dirty = true;            // berubah sejak snapshot terakhir
+    protected float x;                         // posisi di dunia
+    protected float y;
+    SpatialGrid grid;                          // null = tidak terdaftar di indeks spasial
+    int gridCell = -1;                         // sel dan slot di grid, dikelola SpatialGrid
+    int gridSlot;
+    
+    // Constructor untuk inisialisasi karakter dasar
+    public Character(String name, int health, int mana, int attack, int defense) {
+        this.name = name;
+        this.level = 1;
+        this.health = health;
+        this.maxHealth = health;
+        this.mana = mana;
+        this.maxMana = mana;
+        this.attack = attack;
+        this.defense = defense;
+        this.experience = 0;
+        this.isAlive = true;
+    }
+    
+    // Method abstract yang harus diimplementasikan oleh setiap subclass
+    public abstract void useSpecialAbility(Character target);
+    public abstract String getCharacterClass();
+    public abstract void levelUp();
+    
+    // Method untuk basic attack
+    public int basicAttack(Character target) {
+        if (!this.isAlive || !target.isAlive) {
+            GameOutput.println("Cannot attack - one of the characters is dead");
+            return 0;
+        }
+        
+        long started = CombatMetrics.isEnabled() ? System.nanoTime() : 0;
+        int damage = DamageFormulas.evaluate(DamageFormulas.BASIC_ATTACK, this, target, random);
+        damage = Math.max(1, damage); // Minimum 1 damage
+        
+        target.takeDamage(damage);
+        emit(CombatEvent.Type.ATTACK, target, null, damage);
+        
+        if (started != 0) {
+            CombatMetrics.attack(System.nanoTime() - started);
+        }
+        return damage;
+    }
+    
+    // Method untuk menerima damage
+    public void takeDamage(int damage) {
+        if (statusEffects != null) {
+            damage = statusEffects.absorb(this, damage);
+        }
+        this.dirty = true;
+        this.health -= damage;
+        boolean metrics = CombatMetrics.isEnabled();
+        if (metrics && this.isAlive) {
+            CombatMetrics.damageTaken(damage);
+        }
+        if (this.health <= 0) {
+            this.health = 0;
+        }
+        // Kekalahan hanya diproses sekali, saat transisi hidup -> mati; serangan ke
+        // karakter yang sudah mati tidak boleh memicu event, metrics atau loot lagi
+        if (this.isAlive && this.health == 0) {
+            this.isAlive = false;
+            if (metrics) {
+                CombatMetrics.death();
+            }
+            if (grid != null) {
+                grid.remove(this);
+            }
+            emit(CombatEvent.Type.DEFEAT, null, null, 0);
+            if (loot != null) {
+                loot.onDefeat(this);
+            }
+        }
+    }
+    
+    // Method untuk healing
+    public void heal(int amount) {
+        this.dirty = true;
+        this.health += amount;
+        if (this.health > this.maxHealth) {
+            this.health = this.maxHealth;
+        }
+        if (CombatMetrics.isEnabled()) {
+            CombatMetrics.heal(amount);
+        }
+        emit(CombatEvent.Type.HEAL, null, null, amount);
+    }
+    
+    // Method untuk menggunakan mana
+    public boolean useMana(int cost) {
+        if (this.mana >= cost) {
+            this.mana -= cost;
+            this.dirty = true;
+            return true;
+        }
+        if (GameOutput.isEnabled()) {
+            GameOutput.println(this.name + " doesn't have enough mana");
+        }
+        return false;
+    }
+    
+    // Method untuk restore mana
+    public void restoreMana(int amount) {
+        this.dirty = true;
+        this.mana += amount;
+        if (this.mana > this.maxMana) {
+            this.mana = this.maxMana;
+        }
+    }
+    
+    static final int MAX_SKILL_SLOTS = 8;
+    
+    // Method untuk menambah skill
+    public void addSkill(Skill skill) {
+        addSkill(SkillRegistry.register(skill));
+    }
+    
+    // Method untuk menambah skill berdasarkan id di SkillRegistry
+    public void addSkill(int skillId) {
+        if (skillCount == MAX_SKILL_SLOTS) {
+            throw new IllegalStateException(name + " cannot learn more than " + MAX_SKILL_SLOTS + " skills");
+        }
+        Skill skill = SkillRegistry.get(skillId);
+        this.skillSlots |= (long) skillId << (8 * skillCount);
+        this.skillCount++;
+        this.dirty = true;
+        GameOutput.println(this.name + " learned " + skill.getSkillName());
+    }
+    
+    // Method untuk menggunakan skill berdasarkan index
+    // Mengembalikan damage/healing yang dihasilkan, atau -1 jika skill gagal digunakan
+    public int useSkill(int skillIndex, Character target) {
+        long started = CombatMetrics.isEnabled() ? System.nanoTime() : 0;
+        Skill skill = readySkill(skillIndex);
+        if (skill == null) {
+            if (started != 0) {
+                CombatMetrics.skillFailed();
+            }
+            return -1;
+        }
+        
+        int result = skill.useSkill(this, target, random);
+        startCooldown(skillIndex, skill.getCooldownTicks());
+        emit(CombatEvent.Type.SKILL, target, skill.getSkillName(), result);
+        if (started != 0) {
+            CombatMetrics.skillCast(System.nanoTime() - started);
+        }
+        return result;
+    }
+    
+    // Menggunakan skill sebagai area efek: target dicari lewat SpatialGrid, bukan scan Party
+    // Skill offensive mengenai semua kecuali pengguna dan party-nya (allies), skill supportive
+    // hanya mengenai pengguna dan party-nya
+    public int useAreaSkill(int skillIndex, Character primary, Party allies) {
+        Set<Character> friendly = Collections.newSetFromMap(new IdentityHashMap<>());
+        friendly.add(this);
+        if (allies != null) {
+            friendly.addAll(allies.getMembers());
+        }
+        boolean supportive = skillIndex >= 0 && skillIndex < skillCount && getSkill(skillIndex).isSupportive();
+        return useAreaSkill(skillIndex, primary, supportive ? friendly::contains : c -> !friendly.contains(c));
+    }
+    
+    // Radius berpusat di target utama, kerucut dari posisi karakter ke arah target utama;
+    // affected menyaring karakter yang terkena (misalnya hanya anggota party lawan).
+    // Skill tanpa area atau karakter di luar grid jatuh kembali ke useSkill satu target.
+    // Mengembalikan total damage/healing, atau -1 jika skill gagal digunakan
+    public int useAreaSkill(int skillIndex, Character primary, Predicate<Character> affected) {
+        if (skillIndex >= 0 && skillIndex < skillCount
+                && (getSkill(skillIndex).getArea() == null || grid == null || primary.grid != grid)) {
+            return useSkill(skillIndex, primary);
+        }
+        long started = CombatMetrics.isEnabled() ? System.nanoTime() : 0;
+        Skill skill = readySkill(skillIndex);
+        if (skill == null) {
+            if (started != 0) {
+                CombatMetrics.skillFailed();
+            }
+            return -1;
+        }
+        
+        Area area = skill.getArea();
+        List<Character> hits = new ArrayList<>();
+        if (area.getShape() == Area.Shape.CONE) {
+            grid.queryCone(x, y, primary.x - x, primary.y - y, area.getRange(), area.getCosHalfAngle(), hits);
+        } else {
+            grid.queryRadius(primary.x, primary.y, area.getRange(), hits);
+        }
+        hits.removeIf(c -> !c.isAlive || !affected.test(c));
+        
+        int result = AreaEffects.resolve(this, skill, hits, random);
+        startCooldown(skillIndex, skill.getCooldownTicks());
+        emit(CombatEvent.Type.SKILL, primary, skill.getSkillName(), result);
+        if (started != 0) {
+            CombatMetrics.skillCast(System.nanoTime() - started);
+        }
+        return result;
+    }
+    
+    // Memvalidasi index, cooldown dan mana; mengembalikan skill siap pakai atau null
+    private Skill readySkill(int skillIndex) {
+        if (skillIndex < 0 || skillIndex >= skillCount) {
+            GameOutput.println("Invalid skill index");
+            return null;
+        }
+        
+        Skill skill = getSkill(skillIndex);
+        if (isSkillOnCooldown(skillIndex)) {
+            if (GameOutput.isEnabled()) {
+                GameOutput.println(skill.getSkillName() + " is on cooldown");
+            }
+            return null;
+        }
+        return useMana(skill.getManaCost()) ? skill : null;
+    }
+    
+    private static String withBase(int effective, int base) {
+        return effective == base ? String.valueOf(effective) : effective + " (base " + base + ")";
+    }
+    
+    // Method untuk menampilkan status karakter
+    public void displayStatus() {
+        System.out.println("=== " + name + " (" + getCharacterClass() + ") ===");
+        System.out.println("Level: " + level);
+        System.out.println("Health: " + health + "/" + maxHealth);
+        System.out.println("Mana: " + mana + "/" + maxMana);
+        // Nilai efektif (termasuk buff/debuff aktif); nilai dasar ditampilkan jika berbeda
+        System.out.println("Attack: " + withBase(getEffectiveAttack(), attack));
+        System.out.println("Defense: " + withBase(getEffectiveDefense(), defense));
+        System.out.println("Experience: " + experience);
+        System.out.println("Status: " + (isAlive ? "Alive" : "Dead"));
+        
+        if (skillCount > 0) {
+            System.out.println("Skills:");
+            for (int i = 0; i < skillCount; i++) {
+                System.out.println("  " + (i + 1) + ". " + getSkill(i).getSkillName() + 
+                                 " (Cost: " + getSkill(i).getManaCost() + " MP)");
+            }
+        }
+    }
+    
+    // Method untuk menambah experience
+    public void gainExperience(int exp) {
+        // Dijumlahkan dalam long agar experience besar tidak overflow sebelum level dihitung
+        long total = ExperienceCurve.xpToReach(this.level) + (long) this.experience + exp;
+        this.experience = (int) Math.min(Integer.MAX_VALUE, (long) this.experience + exp);
+        this.dirty = true;
+        emit(CombatEvent.Type.EXPERIENCE, null, null, exp);
+        
+        // Check for level up; experience besar bisa menaikkan beberapa level sekaligus
+        // dan sisanya dibawa ke level berikutnya
+        int target = ExperienceCurve.levelFor(total);
+        for (int l = this.level; l < target; l++) {
+            levelUp();
+        }
+        if (this.level == target) {
+            this.experience = (int) Math.min(Integer.MAX_VALUE, total - ExperienceCurve.xpToReach(target));
+        }
+    }
+    
+    // Pertumbuhan stat untuk beberapa level sekaligus; growth = {health, mana, attack, defense}
+    // dari CharacterClasses.GROWTH, satu-satunya sumber angka pertumbuhan per class
+    protected void applyGrowth(int[] growth, int levels) {
+        this.level += levels;
+        this.maxHealth += levels * growth[0];
+        this.health = this.maxHealth;
+        this.maxMana += levels * growth[1];
+        this.mana = this.maxMana;
+        this.attack += levels * growth[2];
+        this.defense += levels * growth[3];
+        this.dirty = true;
+    }
+    
+    // Getter methods
+    public String getName() { return name; }
+    public int getLevel() { return level; }
+    public int getHealth() { return health; }
+    public int getMaxHealth() { return maxHealth; }
+    public int getMana() { return mana; }
+    public int getMaxMana() { return maxMana; }
+    public int getAttack() { return attack; }
+    public int getDefense() { return defense; }
+    public boolean isAlive() { return isAlive; }
+    public int getSkillCount() { return skillCount; }
+    
+    public int getSkillId(int slot) {
+        Objects.checkIndex(slot, skillCount);
+        return (int) (skillSlots >>> (8 * slot)) & 0xFF;
+    }
+    
+    // Lookup definisi skill cukup dengan indexing ke registry
+    public Skill getSkill(int slot) {
+        return SkillRegistry.get(getSkillId(slot));
+    }
+    
+    // Salinan read-only daftar skill (untuk tampilan; jalur combat memakai getSkill)
+    public List<Skill> getSkills() {
+        Skill[] skills = new Skill[skillCount];
+        for (int i = 0; i < skillCount; i++) {
+            skills[i] = getSkill(i);
+        }
+        return List.of(skills);
+    }
+    
+    void clearSkills() {
+        skillSlots = 0;
+        skillCount = 0;
+        resetCooldowns();
+    }
+    
+    // Cooldown per slot cukup dibandingkan dengan tick wheel saat ini (O(1))
+    public boolean isSkillOnCooldown(int slot) {
+        if ((manualCooldowns & (1 << slot)) != 0) return true;
+        return cooldownWheel != null && cooldownWheel.currentTick() < readyTick(slot);
+    }
+    
+    // Sisa tick cooldown (Integer.MAX_VALUE untuk cooldown manual)
+    public int getSkillRemainingTicks(int slot) {
+        if ((manualCooldowns & (1 << slot)) != 0) return Integer.MAX_VALUE;
+        if (cooldownWheel == null) return 0;
+        return (int) Math.max(0, readyTick(slot) - cooldownWheel.currentTick());
+    }
+    
+    public void resetCooldown(int slot) {
+        manualCooldowns &= ~(1 << slot);
+        if (readyTicks != null && slot < readyTicks.length) {
+            readyTicks[slot] = 0;
+        }
+    }
+    
+    public void resetCooldowns() {
+        manualCooldowns = 0;
+        if (readyTicks != null) {
+            Arrays.fill(readyTicks, 0);
+        }
+    }
+    
+    // Tanpa wheel, cooldown bersifat manual sampai resetCooldown dipanggil
+    private void startCooldown(int slot, int ticks) {
+        if (cooldownWheel == null) {
+            manualCooldowns |= 1 << slot;
+            return;
+        }
+        manualCooldowns &= ~(1 << slot);
+        if (readyTicks == null || readyTicks.length < skillCount) {
+            readyTicks = readyTicks == null ? new long[skillCount] : Arrays.copyOf(readyTicks, skillCount);
+        }
+        readyTicks[slot] = cooldownWheel.currentTick() + ticks;
+        if (ticks > 0) {
+            cooldownWheel.schedule(this, slot, readyTicks[slot]);
+        }
+    }
+    
+    private long readyTick(int slot) {
+        return readyTicks != null && slot < readyTicks.length ? readyTicks[slot] : 0;
+    }
+    
+    // Dipakai wheel untuk memastikan cooldown belum direset/diperbarui sejak dijadwalkan
+    boolean isSkillReadyAt(CooldownWheel wheel, int slot, long tick) {
+        return cooldownWheel == wheel && (manualCooldowns & (1 << slot)) == 0 && readyTick(slot) == tick;
+    }
+    public RandomSource getRandomSource() { return random; }
+    
+    // Setter sumber acak (misalnya seed tetap untuk replay atau simulasi)
+    public void setRandomSource(RandomSource random) {
+        this.random = random;
+    }
+    
+    // Dirty flag untuk snapshot delta
+    public boolean isDirty() { return dirty; }
+    public void markDirty() { dirty = true; }
+    void clearDirty() { dirty = false; }
+    public int getExperience() { return experience; }
+    
+    // Melaporkan hasil combat: ke event bus jika terpasang, jika tidak langsung ke konsol
+    protected void emit(CombatEvent.Type type, Character target, String detail, int value) {
+        if (type == CombatEvent.Type.LEVEL_UP && CombatMetrics.isEnabled()) {
+            CombatMetrics.levelUp();
+        }
+        if (events != null) {
+            events.publish(type, this, target, detail, value);
+        } else if (GameOutput.isEnabled()) {
+            GameOutput.println(CombatEvent.format(type, this, target, detail, value));
+        }
+    }
+    
+    public void setEventBus(CombatEventBus events) {
+        this.events = events;
+    }
+    
+    public void setLootSystem(LootSystem loot) {
+        this.loot = loot;
+    }
+    
+    // Memasang status effect; durasi dilacak oleh effect engine jika ada
+    public void addStatusEffect(StatusEffect effect) {
+        if (statusEffects == null) {
+            statusEffects = new StatusEffects();
+        }
+        effect.owner = this;
+        statusEffects.add(effect);
+        if (effectEngine != null) {
+            effectEngine.register(effect);
+        }
+    }
+    
+    public void removeStatusEffect(StatusEffect effect) {
+        if (statusEffects != null) {
+            statusEffects.remove(effect);
+        }
+    }
+    
+    // Attack dan defense setelah modifier status effect (di-cache per perubahan effect)
+    public int getEffectiveAttack() {
+        return statusEffects == null ? attack : statusEffects.attack(attack);
+    }
+    
+    public int getEffectiveDefense() {
+        return statusEffects == null ? defense : statusEffects.defense(defense);
+    }
+    
+    public void setStatusEffectEngine(StatusEffectEngine effectEngine) {
+        this.effectEngine = effectEngine;
+    }
+    
+    // Setter timing wheel untuk cooldown skill berbasis tick
+    // Tick siap lama relatif ke wheel sebelumnya, jadi cooldown ikut direset
+    public void setCooldownWheel(CooldownWheel cooldownWheel) {
+        this.cooldownWheel = cooldownWheel;
+        resetCooldowns();
+    }
+    
+    public CooldownWheel getCooldownWheel() { return cooldownWheel; }
+    
+    public float getX() { return x; }
+    public float getY() { return y; }
+    
+    // Memindahkan karakter; sel di grid hanya diperbarui jika karakter berpindah sel
+    public void moveTo(float x, float y) {
+        this.x = x;
+        this.y = y;
+        if (grid != null) {
+            grid.update(this);
+        }
+    }
+    
+    // Mendaftarkan karakter ke indeks spasial (null = keluar dari indeks)
+    public void setSpatialGrid(SpatialGrid grid) {
+        if (this.grid == grid) return;
+        if (this.grid != null) {
+            this.grid.remove(this);
+        }
+        if (grid != null && isAlive) {
+            grid.insert(this);
+        }
+    }
+    
+    public SpatialGrid getSpatialGrid() { return grid; }
+}
+
+// Implementasi skill untuk Warrior
+class PowerStrike implements Skill {
+    private static final Area CLEAVE = Area.cone(3f, 90f);
+    
+    @Override
+    public int useSkill(Character target, RandomSource random) {
+        return useSkill(null, target, random);
+    }
+    
+    @Override
+    public int useSkill(Character user, Character target, RandomSource random) {
+        return applyValue(user, target, rollValue(user, target, random));
+    }
+    
+    @Override
+    public boolean hasValue() { return true; }
+    
+    @Override
+    public int rollValue(Character user, Character target, RandomSource random) {
+        return DamageFormulas.evaluate(DamageFormulas.POWER_STRIKE, user, target, random);
+    }
+    
+    // Sebagai skill area: tebasan melebar di depan pengguna
+    @Override
+    public Area getArea() { return CLEAVE; }
+    
+    @Override
+    public String getSkillName() { return "Power Strike"; }
+    
+    @Override
+    public String getDescription() { return "A powerful attack that deals massive damage"; }
+    
+    @Override
+    public int getManaCost() { return 20; }
+    
+    @Override
+    public int getCooldownTicks() { return 3; }
+    
+    @Override
+    public int getBaseValue() { return 50; }
+    
+    @Override
+    public int getValueRange() { return 20; }
+}
+
+class DefensiveStance implements Skill {
+    @Override
+    public int useSkill(Character target, RandomSource random) {
+        // Self-buff skill
+        if (target != null) {
+            target.addStatusEffect(StatusEffect.defense("Defensive Stance", 10, 0, 3));
+            if (GameOutput.isEnabled()) {
+                GameOutput.println(target.getName() + " enters defensive stance, defense increased");
+            }
+        }
+        return 0;
+    }
+    
+    @Override
+    public String getSkillName() { return "Defensive Stance"; }
+    
+    @Override
+    public String getDescription() { return "Increases defense temporarily"; }
+    
+    @Override
+    public boolean isSupportive() { return true; }
+    
+    @Override
+    public int getManaCost() { return 15; }
+    
+    @Override
+    public int getCooldownTicks() { return 5; }
+}
+
+// Implementasi skill untuk Mage
+class Fireball implements Skill {
+    private static final Area SPLASH = Area.radius(3f);
+    
+    @Override
+    public int useSkill(Character target, RandomSource random) {
+        return useSkill(null, target, random);
+    }
+    
+    @Override
+    public int useSkill(Character user, Character target, RandomSource random) {
+        return applyValue(user, target, rollValue(user, target, random));
+    }
+    
+    @Override
+    public int applyValue(Character user, Character target, int damage) {
+        if (target != null) {
+            target.takeDamage(damage);
+            if (GameOutput.isEnabled()) {
+                GameOutput.println("Fireball burns " + target.getName());
+            }
+        }
+        return damage;
+    }
+    
+    @Override
+    public boolean hasValue() { return true; }
+    
+    @Override
+    public int rollValue(Character user, Character target, RandomSource random) {
+        return DamageFormulas.evaluate(DamageFormulas.FIREBALL, user, target, random);
+    }
+    
+    // Sebagai skill area: ledakan mengenai semua di sekitar target utama
+    @Override
+    public Area getArea() { return SPLASH; }
+    
+    @Override
+    public String getSkillName() { return "Fireball"; }
+    
+    @Override
+    public String getDescription() { return "Launches a burning fireball at the enemy"; }
+    
+    @Override
+    public int getManaCost() { return 25; }
+    
+    @Override
+    public int getCooldownTicks() { return 2; }
+    
+    @Override
+    public int getBaseValue() { return 40; }
+    
+    @Override
+    public int getValueRange() { return 25; }
+}
+
+class Heal implements Skill {
+    private static final Area CIRCLE = Area.radius(5f);
+    
+    @Override
+    public int useSkill(Character target, RandomSource random) {
+        return useSkill(null, target, random);
+    }
+    
+    @Override
+    public int useSkill(Character user, Character target, RandomSource random) {
+        return applyValue(user, target, rollValue(user, target, random));
+    }
+    
+    @Override
+    public boolean hasValue() { return true; }
+    
+    @Override
+    public int rollValue(Character user, Character target, RandomSource random) {
+        return DamageFormulas.evaluate(DamageFormulas.HEAL, user, target, random);
+    }
+    
+    // Sebagai skill area: menyembuhkan semua dalam radius di sekitar target utama
+    @Override
+    public Area getArea() { return CIRCLE; }
+    
+    @Override
+    public String getSkillName() { return "Heal"; }
+    
+    @Override
+    public String getDescription() { return "Restores health to target"; }
+    
+    @Override
+    public boolean isSupportive() { return true; }
+    
+    @Override
+    public int getManaCost() { return 20; }
+    
+    @Override
+    public int getCooldownTicks() { return 4; }
+    
+    @Override
+    public int getBaseValue() { return 30; }
+    
+    @Override
+    public int getValueRange() { return 20; }
+}
+
+// Skill untuk Archer
+class PrecisionShot implements Skill {
+    @Override
+    public int useSkill(Character target, RandomSource random) {
+        return useSkill(null, target, random);
+    }
+    
+    @Override
+    public int useSkill(Character user, Character target, RandomSource random) {
+        // Always hits, ignores some defense
+        return applyValue(user, target, rollValue(user, target, random));
+    }
+    
+    @Override
+    public int applyValue(Character user, Character target, int damage) {
+        if (target != null) {
+            target.takeDamage(damage);
+            if (GameOutput.isEnabled()) {
+                GameOutput.println("Precision shot hits " + target.getName() + " perfectly");
+            }
+        }
+        return damage;
+    }
+    
+    @Override
+    public boolean hasValue() { return true; }
+    
+    @Override
+    public int rollValue(Character user, Character target, RandomSource random) {
+        return DamageFormulas.evaluate(DamageFormulas.PRECISION_SHOT, user, target, random);
+    }
+    
+    @Override
+    public String getSkillName() { return "Precision Shot"; }
+    
+    @Override
+    public String getDescription() { return "A precise shot that never misses"; }
+    
+    @Override
+    public int getManaCost() { return 18; }
+    
+    @Override
+    public int getCooldownTicks() { return 2; }
+    
+    @Override
+    public int getBaseValue() { return 35; }
+    
+    @Override
+    public int getValueRange() { return 15; }
+}
+
+// Class Warrior - mewarisi Character
+class Warrior extends Character {
+    
+    public Warrior(String name) {
+        super(name, 120, 50, 25, 15); // High health, low mana, high attack
+        
+        // Add warrior-specific skills
+        addSkill(SkillRegistry.POWER_STRIKE);
+        addSkill(SkillRegistry.DEFENSIVE_STANCE);
+    }
+    
+    @Override
+    public void useSpecialAbility(Character target) {
+        GameOutput.println(this.name + " uses Berserker Rage!");
+        addStatusEffect(StatusEffect.attack("Berserker Rage", 10, 0, 3));
+        addStatusEffect(StatusEffect.defense("Berserker Rage", -5, 0, 3));
+        GameOutput.println("Attack increased, defense decreased");
+    }
+    
+    @Override
+    public String getCharacterClass() {
+        return "Warrior";
+    }
+    
+    @Override
+    public void levelUp() {
+        applyGrowth(CharacterClasses.GROWTH[CharacterClasses.WARRIOR], 1);
+        this.experience = 0;
+        
+        emit(CombatEvent.Type.LEVEL_UP, null, "Health and attack increased significantly", this.level);
+    }
+}
+
+// Class Mage - mewarisi Character
+class Mage extends Character {
+    
+    public Mage(String name) {
+        super(name, 80, 100, 15, 8); // Low health, high mana, moderate attack
+        
+        // Add mage-specific skills
+        addSkill(SkillRegistry.FIREBALL);
+        addSkill(SkillRegistry.HEAL);
+    }
+    
+    @Override
+    public void useSpecialAbility(Character target) {
+        GameOutput.println(this.name + " casts Mana Shield!");
+        GameOutput.println("Next attack will consume mana instead of health");
+        addStatusEffect(StatusEffect.shield("Mana Shield", 50, true, 3));
+    }
+    
+    @Override
+    public String getCharacterClass() {
+        return "Mage";
+    }
+    
+    @Override
+    public void levelUp() {
+        applyGrowth(CharacterClasses.GROWTH[CharacterClasses.MAGE], 1);
+        this.experience = 0;
+        
+        emit(CombatEvent.Type.LEVEL_UP, null, "Mana and magical power increased significantly", this.level);
+    }
+}
+
+// Class Archer - mewarisi Character
+class Archer extends Character {
+    
+    public Archer(String name) {
+        super(name, 90, 70, 20, 10); // Balanced stats with focus on precision
+        
+        // Add archer-specific skills
+        addSkill(SkillRegistry.PRECISION_SHOT);
+    }
+    
+    @Override
+    public void useSpecialAbility(Character target) {
+        GameOutput.println(this.name + " activates Eagle Eye!");
+        GameOutput.println("Next few attacks will have increased accuracy and critical chance");
+    }
+    
+    @Override
+    public String getCharacterClass() {
+        return "Archer";
+    }
+    
+    @Override
+    public void levelUp() {
+        applyGrowth(CharacterClasses.GROWTH[CharacterClasses.ARCHER], 1);
+        this.experience = 0;
+        
+        emit(CombatEvent.Type.LEVEL_UP, null, "Agility and precision increased", this.level);
+    }
+}
+
+// Registry role eksklusif (misalnya gelar unik per realm/shard) berbasis CAS
+// Setiap role punya satu slot berisi lease immutable (pemegang + waktu kedaluwarsa).
+// Claim, renew, dan release hanya berupa satu compareAndSet pada slot tersebut, tanpa lock;
+// lease yang kedaluwarsa atau pemegangnya mati dianggap kosong dan boleh diambil alih.
+final class RoleRegistry {
+    static final long NO_EXPIRY = 0;
+    
+    private static final RoleRegistry GLOBAL = new RoleRegistry();
+    private static final VarHandle LEASE;
+    
+    static {
+        try {
+            LEASE = MethodHandles.lookup().findVarHandle(Slot.class, "lease", Lease.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    // Lease immutable; diganti utuh lewat CAS sehingga pembaca selalu melihat state konsisten
+    static final class Lease {
+        final Character holder;
+        final long expiresAt; // System.nanoTime(), tidak dipakai jika lease tanpa batas
+        final boolean expires;
+        
+        Lease(Character holder, long leaseNanos) {
+            this.holder = holder;
+            this.expires = leaseNanos > 0;
+            this.expiresAt = expires ? System.nanoTime() + leaseNanos : 0;
+        }
+        
+        boolean isLive() {
+            return holder.isAlive() && (!expires || System.nanoTime() - expiresAt < 0);
+        }
+        
+        public Character getHolder() { return holder; }
+    }
+    
+    private static final class Slot {
+        @SuppressWarnings("unused") // diakses lewat VarHandle LEASE
+        volatile Lease lease;
+    }
+    
+    private final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<>();
+    
+    static RoleRegistry global() { return GLOBAL; }
+    
+    private Slot slot(String role) {
+        Slot slot = slots.get(role);
+        return slot != null ? slot : slots.computeIfAbsent(role, r -> new Slot());
+    }
+    
+    /**
+     * Mengklaim role untuk holder
+     * @param leaseNanos durasi lease (NO_EXPIRY = sampai dilepas atau holder mati)
+     * @return true jika holder sekarang memegang role (termasuk jika sudah memegangnya)
+     */
+    public boolean claim(String role, Character holder, long leaseNanos) {
+        Slot slot = slot(role);
+        Lease next = null;
+        while (true) {
+            Lease current = slot.lease;
+            if (current != null && current.isLive()) {
+                return current.holder == holder;
+            }
+            if (next == null) {
+                next = new Lease(holder, leaseNanos);
+            }
+            if (LEASE.compareAndSet(slot, current, next)) {
+                return true;
+            }
+        }
+    }
+    
+    public boolean claim(String role, Character holder) {
+        return claim(role, holder, NO_EXPIRY);
+    }
+    
+    // Memperpanjang lease; gagal jika role sudah tidak dipegang holder
+    public boolean renew(String role, Character holder, long leaseNanos) {
+        Slot slot = slots.get(role);
+        if (slot == null) return false;
+        Lease current = slot.lease;
+        return current != null && current.holder == holder && current.isLive()
+                && LEASE.compareAndSet(slot, current, new Lease(holder, leaseNanos));
+    }
+    
+    // Melepas role; hanya berhasil untuk pemegang saat ini
+    public boolean release(String role, Character holder) {
+        Slot slot = slots.get(role);
+        if (slot == null) return false;
+        Lease current = slot.lease;
+        return current != null && current.holder == holder && LEASE.compareAndSet(slot, current, null);
+    }
+    
+    // Mengosongkan role tanpa peduli pemegangnya
+    public Character vacate(String role) {
+        Slot slot = slots.get(role);
+        if (slot == null) return null;
+        Lease previous = (Lease) LEASE.getAndSet(slot, (Lease) null);
+        return previous != null ? previous.holder : null;
+    }
+    
+    // Pemegang role yang masih hidup dan lease-nya belum habis (null jika kosong)
+    public Character holder(String role) {
+        Slot slot = slots.get(role);
+        Lease current = slot != null ? slot.lease : null;
+        return current != null && current.isLive() ? current.holder : null;
+    }
+    
+    public boolean isHeld(String role) {
+        return holder(role) != null;
+    }
+    
+    public Lease getLease(String role) {
+        Slot slot = slots.get(role);
+        return slot != null ? slot.lease : null;
+    }
+}
+
+// Role eksklusif: hanya boleh ada satu LegendaryKnight per realm
+// Gelar diklaim lewat RoleRegistry (CAS), bukan lagi double-checked locking
+class LegendaryKnight extends Character {
+    static final String ROLE = "Legendary Knight";
+    static final String DEFAULT_REALM = "default";
+    
+    private String role; // key role yang dipegang; null untuk knight simulasi (bukan pemegang gelar)
+    
+    // Private constructor untuk mencegah instantiation langsung
+    private LegendaryKnight(String name) {
+        super(name, 200, 80, 35, 25); // Superior stats
+        
+        // Add legendary skills
+        addSkill(SkillRegistry.POWER_STRIKE);
+        addSkill(SkillRegistry.DEFENSIVE_STANCE);
+        addSkill(SkillRegistry.HEAL);
+    }
+    
+    static String roleKey(String realm) {
+        return DEFAULT_REALM.equals(realm) ? ROLE : ROLE + "@" + realm;
+    }
+    
+    // Hanya boleh ada satu instance per realm default
+    public static LegendaryKnight getInstance(String name) {
+        return getInstance(name, DEFAULT_REALM);
+    }
+    
+    // Hanya boleh ada satu instance per realm; aman dipanggil dari banyak session sekaligus
+    public static LegendaryKnight getInstance(String name, String realm) {
+        String key = roleKey(realm);
+        Character current = RoleRegistry.global().holder(key);
+        if (current != null) {
+            GameOutput.println("A Legendary Knight already exists: " + current.getName());
+            return null;
+        }
+        
+        // Knight dibuat tanpa output agar baris "learned" tidak tercetak jika klaim kalah
+        LegendaryKnight knight;
+        GameOutput.suppress();
+        try {
+            knight = new LegendaryKnight(name);
+        } finally {
+            GameOutput.resume();
+        }
+        if (!RoleRegistry.global().claim(key, knight)) {
+            // Kalah balapan dengan session lain yang mengklaim lebih dulu
+            current = RoleRegistry.global().holder(key);
+            GameOutput.println("A Legendary Knight already exists: " + (current != null ? current.getName() : "?"));
+            GameOutput.println("Cannot create another Legendary Knight");
+            return null;
+        }
+        knight.role = key;
+        if (GameOutput.isEnabled()) {
+            for (int i = 0; i < knight.getSkillCount(); i++) {
+                GameOutput.println(name + " learned " + knight.getSkill(i).getSkillName());
+            }
+        }
+        GameOutput.println("A Legendary Knight has been awakened: " + name);
+        return knight;
+    }
+    
+    // Membuat knight di luar registry, khusus untuk simulasi balancing
+    // Knight ini tidak memegang gelar sehingga kematiannya tidak melepas role
+    static LegendaryKnight createDetached(String name) {
+        LegendaryKnight knight = new LegendaryKnight(name);
+        GameOutput.println("A Legendary Knight has been awakened: " + name);
+        return knight;
+    }
+    
+    // Mengembalikan knight pemegang gelar saat ini (bisa null)
+    static LegendaryKnight currentInstance() {
+        return (LegendaryKnight) RoleRegistry.global().holder(ROLE);
+    }
+    
+    // Menjadikan knight hasil restore snapshot sebagai pemegang gelar jika belum ada yang hidup
+    static boolean reclaim(LegendaryKnight knight) {
+        if (knight.role == null && knight.isAlive && RoleRegistry.global().claim(ROLE, knight)) {
+            knight.role = ROLE;
+            return true;
+        }
+        return ROLE.equals(knight.role);
+    }
+    
+    // Method untuk mengecek apakah sudah ada Legendary Knight
+    public static boolean exists() {
+        return RoleRegistry.global().isHeld(ROLE);
+    }
+    
+    public static boolean exists(String realm) {
+        return RoleRegistry.global().isHeld(roleKey(realm));
+    }
+    
+    // Method untuk mereset instance (jika knight mati)
+    public static void resetInstance() {
+        // Pemegang lama dilepas dulu agar reclaim() dan takeDamage() tidak menganggapnya
+        // masih memegang gelar setelah slot dikosongkan
+        LegendaryKnight holder = currentInstance();
+        if (holder != null && ROLE.equals(holder.role)) {
+            holder.role = null;
+        }
+        RoleRegistry.global().vacate(ROLE);
+        GameOutput.println("The Legendary Knight has fallen. A new one may arise.");
+    }
+    
+    public String getRole() { return role; }
+    
+    @Override
+    public void useSpecialAbility(Character target) {
+        GameOutput.println(this.name + " channels the power of legends!");
+        GameOutput.println("All stats temporarily doubled!");
+        
+        // Temporary massive stat boost
+        int originalAttack = getEffectiveAttack();
+        int originalDefense = getEffectiveDefense();
+        addStatusEffect(StatusEffect.attack("Legendary Power", 0, 100, 3));
+        addStatusEffect(StatusEffect.defense("Legendary Power", 0, 100, 3));
+        
+        GameOutput.println("Attack: " + originalAttack + " -> " + getEffectiveAttack());
+        GameOutput.println("Defense: " + originalDefense + " -> " + getEffectiveDefense());
+    }
+    
+    @Override
+    public String getCharacterClass() {
+        return "Legendary Knight";
+    }
+    
+    @Override
+    public void levelUp() {
+        applyGrowth(CharacterClasses.GROWTH[CharacterClasses.LEGENDARY_KNIGHT], 1);
+        this.experience = 0;
+        
+        emit(CombatEvent.Type.LEVEL_UP, null, "Legendary power grows stronger!", this.level);
+    }
+    
+    @Override
+    public void takeDamage(int damage) {
+        super.takeDamage(damage);
+        // Lepaskan gelar jika legendary knight mati
+        if (!this.isAlive && role != null && RoleRegistry.global().release(role, this)) {
+            role = null;
+            GameOutput.println("The Legendary Knight has fallen. A new one may arise.");
+        }
+    }
+}
+
+// Class untuk mengelola party/group karakter
+class Party {
+    private List<Character> members;
+    private String partyName;
+    private boolean dirty = true; // roster berubah sejak snapshot terakhir
+    
+    public Party(String partyName) {
+        this.partyName = partyName;
+        this.members = new ArrayList<>();
+    }
+    
+    public void addMember(Character character) {
+        if (character != null) {
+            members.add(character);
+            dirty = true;
+            if (GameOutput.isEnabled()) {
+                GameOutput.println(character.getName() + " joined party " + partyName);
+            }
+        }
+    }
+    
+    public void displayParty() {
+        System.out.println("=== Party: " + partyName + " ===");
+        if (members.isEmpty()) {
+            System.out.println("No members in party");
+            return;
+        }
+        
+        for (int i = 0; i < members.size(); i++) {
+            System.out.println((i + 1) + ". " + members.get(i).getName() + 
+                             " (" + members.get(i).getCharacterClass() + ") - Level " + 
+                             members.get(i).getLevel());
+        }
+    }
+    
+    public void displayAllStatus() {
+        System.out.println("=== Full Party Status ===");
+        for (Character member : members) {
+            member.displayStatus();
+            System.out.println();
+        }
+    }
+    
+    public List<Character> getMembers() {
+        return members;
+    }
+    
+    public String getPartyName() { return partyName; }
+    public boolean isDirty() { return dirty; }
+    void clearDirty() { dirty = false; }
+    
+    // Mengecek apakah masih ada anggota yang hidup
+    public boolean hasAliveMembers() {
+        for (Character member : members) {
+            if (member.isAlive()) return true;
+        }
+        return false;
+    }
+    
+    public Character getMember(int index) {
+        if (index >= 0 && index < members.size()) {
+            return members.get(index);
+        }
+        return null;
+    }
+}
+
+// Statistik agregat hasil simulasi pertarungan
+class BattleStats {
+    static final int DAMAGE_BUCKET_WIDTH = 10;
+    static final int DAMAGE_BUCKETS = 16; // bucket terakhir menampung damage >= 150
+    
+    long battles;
+    long winsA;
+    long winsB;
+    long draws;
+    long totalRounds;
+    long totalDamage;
+    long damagingActions;
+    final long[] damageHistogram = new long[DAMAGE_BUCKETS];
+    
+    void recordDamage(int damage) {
+        totalDamage += damage;
+        damagingActions++;
+        damageHistogram[Math.min(damage / DAMAGE_BUCKET_WIDTH, DAMAGE_BUCKETS - 1)]++;
+    }
+    
+    void merge(BattleStats other) {
+        battles += other.battles;
+        winsA += other.winsA;
+        winsB += other.winsB;
+        draws += other.draws;
+        totalRounds += other.totalRounds;
+        totalDamage += other.totalDamage;
+        damagingActions += other.damagingActions;
+        for (int i = 0; i < DAMAGE_BUCKETS; i++) {
+            damageHistogram[i] += other.damageHistogram[i];
+        }
+    }
+    
+    public double getWinRateA() { return battles == 0 ? 0 : (double) winsA / battles; }
+    public double getWinRateB() { return battles == 0 ? 0 : (double) winsB / battles; }
+    public double getDrawRate() { return battles == 0 ? 0 : (double) draws / battles; }
+    public double getAverageRounds() { return battles == 0 ? 0 : (double) totalRounds / battles; }
+    public double getAverageDamage() { return damagingActions == 0 ? 0 : (double) totalDamage / damagingActions; }
+    public long getBattles() { return battles; }
+    
+    public void display(String nameA, String nameB) {
+        System.out.println("=== Simulation Result: " + nameA + " vs " + nameB + " ===");
+        System.out.println("Battles: " + battles);
+        System.out.println(String.format("%s wins: %.2f%%", nameA, getWinRateA() * 100));
+        System.out.println(String.format("%s wins: %.2f%%", nameB, getWinRateB() * 100));
+        System.out.println(String.format("Draws: %.2f%%", getDrawRate() * 100));
+        System.out.println(String.format("Average fight length: %.2f rounds", getAverageRounds()));
+        System.out.println(String.format("Average damage per hit: %.2f", getAverageDamage()));
+        System.out.println("Damage distribution:");
+        for (int i = 0; i < DAMAGE_BUCKETS; i++) {
+            if (damageHistogram[i] == 0) continue;
+            String range = i == DAMAGE_BUCKETS - 1
+                    ? (i * DAMAGE_BUCKET_WIDTH) + "+"
+                    : (i * DAMAGE_BUCKET_WIDTH) + "-" + ((i + 1) * DAMAGE_BUCKET_WIDTH - 1);
+            System.out.println(String.format("  %-8s %6.2f%%", range,
+                    damageHistogram[i] * 100.0 / damagingActions));
+        }
+    }
+}
+
+// Simulator pertarungan tanpa output konsol untuk balancing karakter
+// Pertarungan dibagi ke beberapa core dengan fork/join; setiap task mengumpulkan
+// statistiknya sendiri lalu digabung saat join, sehingga tidak ada state bersama
+class BattleSimulator {
+    private static final int BATTLES_PER_TASK = 1024;
+    
+    private final Supplier<Party> sideA;
+    private final Supplier<Party> sideB;
+    private int maxRounds = 100;
+    private long seed = System.nanoTime();
+    
+    public BattleSimulator(Supplier<Party> sideA, Supplier<Party> sideB) {
+        this.sideA = sideA;
+        this.sideB = sideB;
+    }
+    
+    // Simulasi 1v1: setiap karakter dibungkus dalam party berisi satu anggota
+    public static BattleSimulator duel(Supplier<Character> a, Supplier<Character> b) {
+        return new BattleSimulator(() -> soloParty(a.get()), () -> soloParty(b.get()));
+    }
+    
+    private static Party soloParty(Character character) {
+        Party party = new Party(character.getName());
+        party.addMember(character);
+        return party;
+    }
+    
+    public void setMaxRounds(int maxRounds) { this.maxRounds = maxRounds; }
+    
+    // Seed dasar; pertarungan ke-i selalu memakai seed turunan yang sama sehingga hasil
+    // simulasi dengan seed yang sama identik berapa pun jumlah thread-nya
+    public void setSeed(long seed) { this.seed = seed; }
+    
+    // Seed untuk pertarungan ke-i (campuran SplitMix64 agar seed berdekatan tetap independen)
+    long battleSeed(long index) {
+        long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+    // Menjalankan sejumlah pertarungan secara paralel dan mengembalikan statistik gabungan
+    // Output ditekan per thread di dalam setiap batch pertarungan, bukan lewat flag global
+    public BattleStats run(int battles) {
+        return ForkJoinPool.commonPool().invoke(new BattleTask(0, battles));
+    }
+    
+    private class BattleTask extends RecursiveTask<BattleStats> {
+        private static final long serialVersionUID = 1L;
+        
+        private final int from;
+        private final int to;
+        
+        BattleTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected BattleStats compute() {
+            if (to - from <= BATTLES_PER_TASK) {
+                BattleStats stats = new BattleStats();
+                CooldownWheel wheel = new CooldownWheel();
+                StatusEffectEngine effects = new StatusEffectEngine();
+                GameOutput.suppress();
+                try {
+                    for (int i = from; i < to; i++) {
+                        wheel.reset();
+                        effects.reset();
+                        fight(sideA.get(), sideB.get(), stats, RandomSource.seeded(battleSeed(i)), wheel, effects);
+                    }
+                } finally {
+                    GameOutput.resume();
+                }
+                return stats;
+            }
+            int mid = (from + to) >>> 1;
+            BattleTask left = new BattleTask(from, mid);
+            left.fork();
+            BattleStats result = new BattleTask(mid, to).compute();
+            result.merge(left.join());
+            return result;
+        }
+    }
+    
+    // Satu pertarungan: setiap ronde semua anggota hidup di party A lalu B bergiliran beraksi
+    // Satu ronde = satu tick cooldown dan status effect
+    void fight(Party a, Party b, BattleStats stats, RandomSource random,
+               CooldownWheel wheel, StatusEffectEngine effects) {
+        prepare(a, random, wheel, effects);
+        prepare(b, random, wheel, effects);
+        
+        int round = 0;
+        while (round < maxRounds && a.hasAliveMembers() && b.hasAliveMembers()) {
+            round++;
+            wheel.advance();
+            effects.advance();
+            takeTurns(a, b, stats, random);
+            takeTurns(b, a, stats, random);
+        }
+        
+        boolean aliveA = a.hasAliveMembers();
+        boolean aliveB = b.hasAliveMembers();
+        stats.battles++;
+        stats.totalRounds += round;
+        if (aliveA && !aliveB) stats.winsA++;
+        else if (aliveB && !aliveA) stats.winsB++;
+        else stats.draws++;
+    }
+    
+    private void takeTurns(Party actors, Party enemies, BattleStats stats, RandomSource random) {
+        List<Character> members = actors.getMembers();
+        for (int i = 0; i < members.size(); i++) {
+            Character actor = members.get(i);
+            if (!actor.isAlive()) continue;
+            Character target = pickTarget(enemies, random);
+            if (target == null) return;
+            act(actor, target, stats, random);
+        }
+    }
+    
+    // Kebijakan aksi sederhana: coba skill acak yang siap, jika tidak ada gunakan basic attack
+    private void act(Character actor, Character target, BattleStats stats, RandomSource random) {
+        int count = actor.getSkillCount();
+        if (count > 0) {
+            int start = random.nextInt(count);
+            for (int k = 0; k < count; k++) {
+                int index = (start + k) % count;
+                Skill skill = actor.getSkill(index);
+                if (actor.isSkillOnCooldown(index) || actor.getMana() < skill.getManaCost()) continue;
+                
+                if (skill.isSupportive()) {
+                    if (actor.getHealth() * 2 >= actor.getMaxHealth()) continue;
+                    actor.useSkill(index, actor);
+                } else {
+                    int damage = actor.useSkill(index, target);
+                    if (damage > 0) stats.recordDamage(damage);
+                }
+                return;
+            }
+        }
+        stats.recordDamage(actor.basicAttack(target));
+    }
+    
+    private static Character pickTarget(Party enemies, RandomSource random) {
+        List<Character> members = enemies.getMembers();
+        int size = members.size();
+        int start = random.nextInt(size);
+        for (int k = 0; k < size; k++) {
+            Character candidate = members.get((start + k) % size);
+            if (candidate.isAlive()) return candidate;
+        }
+        return null;
+    }
+    
+    private static void prepare(Party party, RandomSource random, CooldownWheel wheel,
+                                StatusEffectEngine effects) {
+        for (Character member : party.getMembers()) {
+            member.setRandomSource(random);
+            member.setCooldownWheel(wheel);
+            member.setStatusEffectEngine(effects);
+        }
+    }
+    
+    // Jalankan: java -cp <output> BattleSimulator [jumlahPertarungan] [--metrics]
+    // Metrik combat mati secara default; --metrics menyalakannya, mendaftarkan MBean JMX
+    // dan mencetak snapshot setiap detik
+    public static void main(String[] args) {
+        boolean metrics = Arrays.asList(args).contains("--metrics");
+        int battles = args.length > 0 && !args[0].startsWith("--") ? Integer.parseInt(args[0]) : 1_000_000;
+        if (metrics) {
+            CombatMetrics.setEnabled(true);
+            CombatMetrics.registerMBean();
+            CombatMetrics.startDump(System.out, 1);
+        }
+        
+        BattleSimulator duel = duel(() -> new Warrior("Warrior"), () -> new Mage("Mage"));
+        duel.setSeed(42);
+        long start = System.nanoTime();
+        BattleStats stats = duel.run(battles);
+        long elapsed = System.nanoTime() - start;
+        stats.display("Warrior", "Mage");
+        System.out.println(String.format("Elapsed: %.2f s (%.0f battles/min)",
+                elapsed / 1e9, battles * 60e9 / elapsed));
+        
+        System.out.println();
+        BattleSimulator parties = new BattleSimulator(() -> {
+            Party party = new Party("Heroes");
+            party.addMember(new Warrior("Thorin"));
+            party.addMember(new Mage("Gandalf"));
+            party.addMember(new Archer("Legolas"));
+            return party;
+        }, () -> {
+            Party party = new Party("Legend");
+            party.addMember(LegendaryKnight.createDetached("Arthur"));
+            party.addMember(new Archer("Robin"));
+            return party;
+        });
+        parties.run(battles / 10).display("Heroes", "Legend");
+        
+        if (metrics) {
+            CombatMetrics.stopDump();
+            System.out.println(CombatMetrics.snapshot());
+        }
+    }
+}
+
+// Tabel statistik dasar dan pertumbuhan per level untuk setiap class karakter
+// Angka sama dengan constructor dan levelUp() di masing-masing subclass
+final class CharacterClasses {
+    static final byte WARRIOR = 0;
+    static final byte MAGE = 1;
+    static final byte ARCHER = 2;
+    static final byte LEGENDARY_KNIGHT = 3;
+    
+    static final String[] NAMES = {"Warrior", "Mage", "Archer", "Legendary Knight"};
+    
+    // {health, mana, attack, defense}
+    static final int[][] BASE = {
+        {120, 50, 25, 15},
+        {80, 100, 15, 8},
+        {90, 70, 20, 10},
+        {200, 80, 35, 25}
+    };
+    static final int[][] GROWTH = {
+        {20, 5, 5, 3},
+        {10, 20, 3, 2},
+        {15, 10, 4, 2},
+        {30, 15, 8, 5}
+    };
+    
+    private CharacterClasses() {}
+    
+    // Id class dari nama (tidak peka huruf besar/kecil), misalnya "mage" atau "LEGENDARY_KNIGHT"
+    static byte idOf(String className) {
+        String normalized = className.trim().replace('_', ' ');
+        for (byte id = 0; id < NAMES.length; id++) {
+            if (NAMES[id].equalsIgnoreCase(normalized)) return id;
+        }
+        throw new IllegalArgumentException("Unknown character class: " + className);
+    }
+    
+    // Membuat karakter baru dari id class; knight dibuat di luar singleton
+    static Character create(byte classId, String name) {
+        switch (classId) {
+            case WARRIOR: return new Warrior(name);
+            case MAGE: return new Mage(name);
+            case ARCHER: return new Archer(name);
+            case LEGENDARY_KNIGHT: return LegendaryKnight.createDetached(name);
+            default: throw new IllegalArgumentException("Unknown class id: " + classId);
+        }
+    }
+    
+    static byte idOf(Character character) {
+        if (character instanceof Warrior) return WARRIOR;
+        if (character instanceof Mage) return MAGE;
+        if (character instanceof Archer) return ARCHER;
+        if (character instanceof LegendaryKnight) return LEGENDARY_KNIGHT;
+        throw new IllegalArgumentException("Unknown character class: " + character.getCharacterClass());
+    }
+}
+
+// World store bergaya entity-component-system untuk ratusan ribu karakter
+// Setiap stat disimpan dalam array primitif paralel yang di-index oleh entity id,
+// sehingga operasi seluruh dunia (regen, damage-over-time, cek level) berupa loop
+// array yang rapat dan bisa diparalelkan per rentang id
+class CharacterWorld {
+    private static final int CHUNK_SIZE = 4096;
+    
+    private int size;
+    private String[] names;
+    private byte[] classIds;
+    private int[] level;
+    private int[] health;
+    private int[] maxHealth;
+    private int[] mana;
+    private int[] maxMana;
+    private int[] attack;
+    private int[] defense;
+    private int[] experience;
+    private int[] dotDamage;   // damage-over-time per tick
+    private int[] dotTicks;    // sisa tick damage-over-time
+    private WorldCharacter[] facades; // facade per id, dibuat saat get() pertama
+    
+    public CharacterWorld(int initialCapacity) {
+        int capacity = Math.max(16, initialCapacity);
+        names = new String[capacity];
+        classIds = new byte[capacity];
+        level = new int[capacity];
+        health = new int[capacity];
+        maxHealth = new int[capacity];
+        mana = new int[capacity];
+        maxMana = new int[capacity];
+        attack = new int[capacity];
+        defense = new int[capacity];
+        experience = new int[capacity];
+        dotDamage = new int[capacity];
+        dotTicks = new int[capacity];
+        facades = new WorldCharacter[capacity];
+    }
+    
+    // Membuat entity baru dengan stat dasar class; mengembalikan entity id
+    public int spawn(String name, byte classId) {
+        int[] base = CharacterClasses.BASE[classId];
+        int id = allocate();
+        names[id] = name;
+        classIds[id] = classId;
+        level[id] = 1;
+        health[id] = maxHealth[id] = base[0];
+        mana[id] = maxMana[id] = base[1];
+        attack[id] = base[2];
+        defense[id] = base[3];
+        return id;
+    }
+    
+    // Menyalin karakter yang sudah ada ke dalam world
+    public int spawn(Character character) {
+        int id = allocate();
+        names[id] = character.name;
+        classIds[id] = CharacterClasses.idOf(character);
+        level[id] = character.level;
+        health[id] = character.health;
+        maxHealth[id] = character.maxHealth;
+        mana[id] = character.mana;
+        maxMana[id] = character.maxMana;
+        attack[id] = character.attack;
+        defense[id] = character.defense;
+        experience[id] = character.experience;
+        return id;
+    }
+    
+    private int allocate() {
+        if (size == names.length) {
+            int capacity = names.length * 2;
+            names = Arrays.copyOf(names, capacity);
+            classIds = Arrays.copyOf(classIds, capacity);
+            level = Arrays.copyOf(level, capacity);
+            health = Arrays.copyOf(health, capacity);
+            maxHealth = Arrays.copyOf(maxHealth, capacity);
+            mana = Arrays.copyOf(mana, capacity);
+            maxMana = Arrays.copyOf(maxMana, capacity);
+            attack = Arrays.copyOf(attack, capacity);
+            defense = Arrays.copyOf(defense, capacity);
+            experience = Arrays.copyOf(experience, capacity);
+            dotDamage = Arrays.copyOf(dotDamage, capacity);
+            dotTicks = Arrays.copyOf(dotTicks, capacity);
+            facades = Arrays.copyOf(facades, capacity);
+        }
+        return size++;
+    }
+    
+    // Facade bergaya Character untuk satu entity; di-cache per id sehingga pemanggilan
+    // berulang tidak mengalokasi (facade tanpa state, balapan antar thread hanya
+    // menghasilkan instance ganda yang setara)
+    public WorldCharacter get(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Invalid entity id: " + id);
+        }
+        WorldCharacter facade = facades[id];
+        if (facade == null) {
+            facade = facades[id] = new WorldCharacter(this, id);
+        }
+        return facade;
+    }
+    
+    // Dipanggil saat health entity baru saja mencapai 0: damage-over-time dihentikan
+    // dan kekalahan dilaporkan seperti Character.takeDamage (hanya sekali)
+    void defeat(int id) {
+        dotDamage[id] = 0;
+        dotTicks[id] = 0;
+        if (GameOutput.isEnabled()) {
+            GameOutput.println(names[id] + " has been defeated!");
+        }
+    }
+    
+    // Menjalankan operasi per rentang id secara paralel (chunk 4096 entity)
+    public void forEachRange(RangeOperation operation) {
+        int chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            int from = chunk * CHUNK_SIZE;
+            operation.apply(from, Math.min(size, from + CHUNK_SIZE));
+        });
+    }
+    
+    interface RangeOperation {
+        void apply(int from, int to);
+    }
+    
+    // Regenerasi health dan mana untuk semua entity yang hidup
+    public void regenTick(int healthRegen, int manaRegen) {
+        forEachRange((from, to) -> regen(from, to, healthRegen, manaRegen));
+    }
+    
+    void regen(int from, int to, int healthRegen, int manaRegen) {
+        for (int i = from; i < to; i++) {
+            if (health[i] > 0) {
+                health[i] = Math.min(maxHealth[i], health[i] + healthRegen);
+                mana[i] = Math.min(maxMana[i], mana[i] + manaRegen);
+            }
+        }
+    }
+    
+    // Memasang damage-over-time ke satu entity
+    public void applyDamageOverTime(int id, int damagePerTick, int ticks) {
+        dotDamage[id] = damagePerTick;
+        dotTicks[id] = ticks;
+    }
+    
+    // Satu tick damage-over-time untuk seluruh world
+    public void damageOverTimeTick() {
+        forEachRange(this::damageOverTime);
+    }
+    
+    void damageOverTime(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (dotTicks[i] > 0 && health[i] > 0) {
+                health[i] = Math.max(0, health[i] - dotDamage[i]);
+                dotTicks[i]--;
+            }
+        }
+    }
+    
+    // Cek level seluruh world; menaikkan level entity yang experience-nya cukup
+    public void levelCheck() {
+        forEachRange(this::levelCheck);
+    }
+    
+    void levelCheck(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (health[i] > 0 && experience[i] >= level[i] * 100) {
+                awardExperience(i, 0);
+            }
+        }
+    }
+    
+    // Sama seperti levelUp() di subclass Character, tanpa output
+    void levelUp(int id) {
+        levelUp(id, 1);
+        experience[id] = 0;
+    }
+    
+    // Menaikkan beberapa level sekaligus; pertumbuhan stat dihitung aritmatika
+    void levelUp(int id, int levels) {
+        int[] growth = CharacterClasses.GROWTH[classIds[id]];
+        level[id] += levels;
+        maxHealth[id] += levels * growth[0];
+        health[id] = maxHealth[id];
+        maxMana[id] += levels * growth[1];
+        mana[id] = maxMana[id];
+        attack[id] += levels * growth[2];
+        defense[id] += levels * growth[3];
+    }
+    
+    // Menambah experience dan menyelesaikan kenaikan level lewat kurva kumulatif;
+    // sisa experience dibawa ke level berikutnya. Mengembalikan jumlah level yang didapat.
+    int awardExperience(int id, int exp) {
+        if (health[id] <= 0) return 0;
+        long total = ExperienceCurve.xpToReach(level[id]) + (long) experience[id] + exp;
+        int target = ExperienceCurve.levelFor(total);
+        int gained = Math.max(0, target - level[id]);
+        if (gained > 0) {
+            levelUp(id, gained);
+        }
+        experience[id] = (int) Math.min(Integer.MAX_VALUE, total - ExperienceCurve.xpToReach(level[id]));
+        return gained;
+    }
+    
+    public int size() { return size; }
+    
+    // Akses komponen untuk facade dan subsistem lain dalam world
+    String nameOf(int id) { return names[id]; }
+    byte classOf(int id) { return classIds[id]; }
+    int[] levels() { return level; }
+    int[] healths() { return health; }
+    int[] maxHealths() { return maxHealth; }
+    int[] manas() { return mana; }
+    int[] maxManas() { return maxMana; }
+    int[] attacks() { return attack; }
+    int[] defenses() { return defense; }
+    int[] experiences() { return experience; }
+}
+
+// Facade tipis dengan method seperti Character di atas data CharacterWorld
+// Tidak menyimpan state sendiri; semua baca/tulis langsung ke array world.
+// Bukan subtype Character: Party, Skill dan BattleSimulator bergantung pada state
+// Character (slot skill, cooldown, status effect, event bus) yang tidak ada di world,
+// jadi entity yang perlu ikut pertarungan tersebut di-materialisasi sebagai Character
+// (CharacterClasses.create) lalu disalin kembali lewat spawn(Character).
+class WorldCharacter {
+    private final CharacterWorld world;
+    private final int id;
+    
+    WorldCharacter(CharacterWorld world, int id) {
+        this.world = world;
+        this.id = id;
+    }
+    
+    public int basicAttack(WorldCharacter target, RandomSource random) {
+        if (!isAlive() || !target.isAlive()) {
+            return 0;
+        }
+        int damage = Math.max(1, getAttack() + random.nextInt(10) - target.getDefense());
+        target.takeDamage(damage);
+        return damage;
+    }
+    
+    public void takeDamage(int damage) {
+        int[] health = world.healths();
+        if (health[id] <= 0) return; // sudah kalah
+        health[id] = Math.max(0, health[id] - damage);
+        if (health[id] == 0) {
+            world.defeat(id);
+        }
+    }
+    
+    public void heal(int amount) {
+        int[] health = world.healths();
+        if (health[id] <= 0) return; // seperti Character, heal tidak menghidupkan kembali
+        health[id] = Math.min(world.maxHealths()[id], health[id] + amount);
+    }
+    
+    public boolean useMana(int cost) {
+        int[] mana = world.manas();
+        if (mana[id] >= cost) {
+            mana[id] -= cost;
+            return true;
+        }
+        return false;
+    }
+    
+    public void gainExperience(int exp) {
+        world.awardExperience(id, exp);
+    }
+    
+    // Getter methods
+    public int getId() { return id; }
+    public String getName() { return world.nameOf(id); }
+    public String getCharacterClass() { return CharacterClasses.NAMES[world.classOf(id)]; }
+    public int getLevel() { return world.levels()[id]; }
+    public int getHealth() { return world.healths()[id]; }
+    public int getMaxHealth() { return world.maxHealths()[id]; }
+    public int getMana() { return world.manas()[id]; }
+    public int getMaxMana() { return world.maxManas()[id]; }
+    public int getAttack() { return world.attacks()[id]; }
+    public int getDefense() { return world.defenses()[id]; }
+    public int getExperience() { return world.experiences()[id]; }
+    public boolean isAlive() { return world.healths()[id] > 0; }
+}
+
+// Penyimpanan snapshot biner karakter dan party (full + delta)
+// Format versi 1, big-endian:
+//   header : magic "RPGS"(4) version(2) kind(1) sequence(8) characterCount(4)
+//   karakter: id(4) class(1) flags(1) level health maxHealth mana maxMana attack defense
+//             experience (8 x 4) nameLength(2, unsigned) name(UTF-8) skillCount(1) skillId(1 x n)
+//   party  : partyCount(4), lalu per party: nameLength(2, unsigned) name memberCount(4) memberId(4 x n)
+// Snapshot delta hanya berisi karakter dan party yang dirty sejak snapshot sebelumnya.
+// Id karakter berasal dari urutan register di proses ini, jadi penulisan pertama
+// setiap proses selalu snapshot full agar delta tidak merujuk id dari proses lain.
+class SnapshotStore {
+    static final int MAGIC = 0x52504753; // "RPGS"
+    static final short VERSION = 1;
+    static final byte KIND_FULL = 0;
+    static final byte KIND_DELTA = 1;
+    static final int HEADER_SIZE = 19;
+    static final int FLAG_ALIVE = 1;
+    static final int FLAG_LEGENDARY_HOLDER = 2;
+    static final int MAX_NAME_LENGTH = 0xFFFF;
+    
+    private static final int BUFFER_SIZE = 1 << 20;
+    
+    private final Path directory;
+    private final List<Character> characters = new ArrayList<>();
+    private final Map<Character, Integer> ids = new IdentityHashMap<>();
+    private final List<Party> parties = new ArrayList<>();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long sequence;
+    private boolean fullWritten;
+    
+    public SnapshotStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.sequence = SnapshotReader.latestSequence(directory);
+    }
+    
+    // Mendaftarkan karakter; mengembalikan id snapshot-nya
+    public int register(Character character) {
+        Integer id = ids.get(character);
+        if (id != null) return id;
+        ids.put(character, characters.size());
+        characters.add(character);
+        return characters.size() - 1;
+    }
+    
+    public void register(Party party) {
+        if (!parties.contains(party)) {
+            parties.add(party);
+        }
+        for (Character member : party.getMembers()) {
+            register(member);
+        }
+    }
+    
+    public Path saveFull() throws IOException {
+        return save(KIND_FULL);
+    }
+    
+    // Menjadi snapshot full jika proses ini belum pernah menulis snapshot full
+    public Path saveDelta() throws IOException {
+        return save(KIND_DELTA);
+    }
+    
+    private Path save(byte kind) throws IOException {
+        boolean full = kind == KIND_FULL || !fullWritten;
+        kind = full ? KIND_FULL : KIND_DELTA;
+        for (Party party : parties) {
+            for (Character member : party.getMembers()) {
+                register(member);
+            }
+        }
+        
+        sequence++;
+        Path file = directory.resolve(String.format("%016d.%s", sequence, full ? "full" : "delta"));
+        Path temp = directory.resolve(file.getFileName() + ".tmp");
+        
+        try {
+            write(temp, kind, full);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            sequence--;
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        
+        // Flag dirty baru dibersihkan setelah file benar-benar tersimpan
+        for (Character character : characters) {
+            character.clearDirty();
+        }
+        for (Party party : parties) {
+            party.clearDirty();
+        }
+        fullWritten = true;
+        return file;
+    }
+    
+    private void write(Path temp, byte kind, boolean full) throws IOException {
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.clear();
+            buffer.putInt(MAGIC).putShort(VERSION).put(kind).putLong(sequence).putInt(0);
+            
+            LegendaryKnight holder = LegendaryKnight.currentInstance();
+            int written = 0;
+            for (int id = 0; id < characters.size(); id++) {
+                Character character = characters.get(id);
+                if (!full && !character.isDirty()) continue;
+                writeCharacter(channel, id, character, character == holder);
+                written++;
+            }
+            
+            int partyCount = 0;
+            for (Party party : parties) {
+                if (full || party.isDirty()) partyCount++;
+            }
+            ensureCapacity(channel, 4);
+            buffer.putInt(partyCount);
+            for (Party party : parties) {
+                if (!full && !party.isDirty()) continue;
+                writeParty(channel, party);
+            }
+            flush(channel);
+            
+            ByteBuffer count = ByteBuffer.allocate(4).putInt(0, written);
+            channel.write(count, HEADER_SIZE - 4);
+            channel.force(false);
+        }
+    }
+    
+    private void writeCharacter(FileChannel channel, int id, Character c, boolean holder) throws IOException {
+        byte[] name = encodeName(c.getName());
+        ensureCapacity(channel, 4 + 1 + 1 + 32 + 2 + name.length + 1 + c.getSkillCount());
+        
+        buffer.putInt(id)
+              .put(CharacterClasses.idOf(c))
+              .put((byte) ((c.isAlive ? FLAG_ALIVE : 0) | (holder ? FLAG_LEGENDARY_HOLDER : 0)))
+              .putInt(c.level).putInt(c.health).putInt(c.maxHealth)
+              .putInt(c.mana).putInt(c.maxMana)
+              .putInt(c.attack).putInt(c.defense).putInt(c.experience)
+              .putShort((short) name.length).put(name)
+              .put((byte) c.getSkillCount());
+        for (int i = 0; i < c.getSkillCount(); i++) {
+            buffer.put((byte) c.getSkillId(i));
+        }
+    }
+    
+    private void writeParty(FileChannel channel, Party party) throws IOException {
+        byte[] name = encodeName(party.getPartyName());
+        List<Character> members = party.getMembers();
+        ensureCapacity(channel, 2 + name.length + 4 + 4 * members.size());
+        
+        buffer.putShort((short) name.length).put(name).putInt(members.size());
+        for (Character member : members) {
+            buffer.putInt(ids.get(member));
+        }
+    }
+    
+    private static byte[] encodeName(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Name too long for snapshot (" + bytes.length + " bytes): "
+                    + name.substring(0, 32) + "...");
+        }
+        return bytes;
+    }
+    
+    private void ensureCapacity(FileChannel channel, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(channel);
+        }
+    }
+    
+    private void flush(FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+    
+    public int getCharacterCount() { return characters.size(); }
+    public long getSequence() { return sequence; }
+}
+
+// Pembaca snapshot: file full terakhir + delta setelahnya dipetakan ke memori (mmap)
+// Saat dibuka hanya index offset per id yang dibangun; karakter baru dibuat dari
+// buffer saat pertama kali diminta lewat get(id)
+class SnapshotReader implements AutoCloseable {
+    private final List<FileChannel> channels = new ArrayList<>();
+    private final List<MappedByteBuffer> buffers = new ArrayList<>();
+    private int[] fileOf = new int[1024];
+    private int[] offsetOf = new int[1024];
+    private Character[] loaded = new Character[1024];
+    private int size;
+    private int holderId = -1;
+    private final Map<String, int[]> parties = new LinkedHashMap<>();
+    
+    public static SnapshotReader open(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(directory)) {
+            stream.filter(p -> p.toString().endsWith(".full") || p.toString().endsWith(".delta"))
+                  .sorted()
+                  .forEach(files::add);
+        }
+        int start = -1;
+        for (int i = files.size() - 1; i >= 0 && start < 0; i--) {
+            if (files.get(i).toString().endsWith(".full")) start = i;
+        }
+        if (start < 0) {
+            throw new IOException("No full snapshot found in " + directory);
+        }
+        
+        SnapshotReader reader = new SnapshotReader();
+        try {
+            for (Path file : files.subList(start, files.size())) {
+                reader.index(file);
+            }
+        } catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+        return reader;
+    }
+    
+    static long latestSequence(Path directory) throws IOException {
+        long latest = 0;
+        try (Stream<Path> stream = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) stream::iterator) {
+                String name = file.getFileName().toString();
+                int dot = name.indexOf('.');
+                if (dot == 16 && (name.endsWith(".full") || name.endsWith(".delta"))) {
+                    latest = Math.max(latest, Long.parseLong(name.substring(0, dot)));
+                }
+            }
+        }
+        return latest;
+    }
+    
+    private void index(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        channels.add(channel);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        buffers.add(buffer);
+        int fileIndex = buffers.size() - 1;
+        
+        if (buffer.getInt(0) != SnapshotStore.MAGIC) {
+            throw new IOException("Not a snapshot file: " + file);
+        }
+        if (buffer.getShort(4) != SnapshotStore.VERSION) {
+            throw new IOException("Unsupported snapshot version " + buffer.getShort(4) + ": " + file);
+        }
+        
+        int count = buffer.getInt(SnapshotStore.HEADER_SIZE - 4);
+        int position = SnapshotStore.HEADER_SIZE;
+        for (int i = 0; i < count; i++) {
+            int id = buffer.getInt(position);
+            ensureCapacity(id + 1);
+            fileOf[id] = fileIndex;
+            offsetOf[id] = position;
+            loaded[id] = null;
+            size = Math.max(size, id + 1);
+            if ((buffer.get(position + 5) & SnapshotStore.FLAG_LEGENDARY_HOLDER) != 0) {
+                holderId = id;
+            } else if (holderId == id) {
+                holderId = -1;
+            }
+            
+            int nameLength = buffer.getShort(position + 38) & 0xFFFF;
+            int skillsAt = position + 40 + nameLength;
+            position = skillsAt + 1 + buffer.get(skillsAt);
+        }
+        
+        int partyCount = buffer.getInt(position);
+        position += 4;
+        for (int i = 0; i < partyCount; i++) {
+            int nameLength = buffer.getShort(position) & 0xFFFF;
+            String name = decodeString(buffer, position + 2, nameLength);
+            position += 2 + nameLength;
+            int[] members = new int[buffer.getInt(position)];
+            position += 4;
+            for (int m = 0; m < members.length; m++, position += 4) {
+                members[m] = buffer.getInt(position);
+            }
+            parties.put(name, members);
+        }
+    }
+    
+    private void ensureCapacity(int capacity) {
+        if (capacity > fileOf.length) {
+            int newLength = Math.max(capacity, fileOf.length * 2);
+            fileOf = Arrays.copyOf(fileOf, newLength);
+            offsetOf = Arrays.copyOf(offsetOf, newLength);
+            loaded = Arrays.copyOf(loaded, newLength);
+        }
+    }
+    
+    public int size() { return size; }
+    
+    // Id knight yang memegang gelar saat snapshot ditulis (-1 jika tidak ada)
+    public int getLegendaryHolderId() { return holderId; }
+    
+    // Mengembalikan gelar Legendary Knight ke knight dari snapshot secara eksplisit;
+    // get(id) sendiri tidak pernah mengklaim role global
+    public boolean restoreLegendaryHolder() {
+        if (holderId < 0) return false;
+        return LegendaryKnight.reclaim((LegendaryKnight) get(holderId));
+    }
+    
+    // Membuat karakter dari snapshot saat pertama kali diminta
+    public Character get(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Invalid snapshot id: " + id);
+        }
+        Character character = loaded[id];
+        if (character == null) {
+            character = decode(buffers.get(fileOf[id]), offsetOf[id]);
+            loaded[id] = character;
+        }
+        return character;
+    }
+    
+    private Character decode(MappedByteBuffer buffer, int position) {
+        byte classId = buffer.get(position + 4);
+        int flags = buffer.get(position + 5);
+        int nameLength = buffer.getShort(position + 38) & 0xFFFF;
+        String name = decodeString(buffer, position + 40, nameLength);
+        
+        GameOutput.suppress();
+        try {
+            Character c;
+            switch (classId) {
+                case CharacterClasses.WARRIOR: c = new Warrior(name); break;
+                case CharacterClasses.MAGE: c = new Mage(name); break;
+                case CharacterClasses.ARCHER: c = new Archer(name); break;
+                case CharacterClasses.LEGENDARY_KNIGHT: c = LegendaryKnight.createDetached(name); break;
+                default: throw new IllegalStateException("Unknown class id: " + classId);
+            }
+            
+            c.isAlive = (flags & SnapshotStore.FLAG_ALIVE) != 0;
+            c.level = buffer.getInt(position + 6);
+            c.health = buffer.getInt(position + 10);
+            c.maxHealth = buffer.getInt(position + 14);
+            c.mana = buffer.getInt(position + 18);
+            c.maxMana = buffer.getInt(position + 22);
+            c.attack = buffer.getInt(position + 26);
+            c.defense = buffer.getInt(position + 30);
+            c.experience = buffer.getInt(position + 34);
+            
+            int skillsAt = position + 40 + nameLength;
+            c.clearSkills();
+            for (int i = 0; i < buffer.get(skillsAt); i++) {
+                c.addSkill(buffer.get(skillsAt + 1 + i) & 0xFF);
+            }
+            c.clearDirty();
+            return c;
+        } finally {
+            GameOutput.resume();
+        }
+    }
+    
+    private static String decodeString(MappedByteBuffer buffer, int position, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    public Set<String> getPartyNames() { return parties.keySet(); }
+    
+    // Membangun party beserta anggotanya (anggota dimuat saat itu juga)
+    public Party getParty(String name) {
+        int[] members = parties.get(name);
+        if (members == null) return null;
+        Party party = new Party(name);
+        for (int id : members) {
+            party.getMembers().add(get(id));
+        }
+        party.clearDirty();
+        return party;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        for (FileChannel channel : channels) {
+            channel.close();
+        }
+    }
+}
+
+// Executor untuk server: virtual thread per task jika JVM mendukung (Java 21+),
+// selain itu thread pool berukuran tetap sebagai fallback
+final class ServerExecutors {
+    // Batas thread platform pada fallback; task berikutnya antre sampai ada thread yang bebas
+    static final int FALLBACK_THREADS = Math.max(64, Runtime.getRuntime().availableProcessors() * 16);
+    
+    private ServerExecutors() {}
+    
+    static ExecutorService perTask() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return Executors.newFixedThreadPool(FALLBACK_THREADS, runnable -> {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
+
+// Actor untuk satu pertarungan 1v1: memiliki kedua karakter beserta RNG, cooldown wheel
+// dan effect engine-nya. Semua aksi masuk lewat mailbox dan diproses satu per satu,
+// sehingga state karakter tidak pernah disentuh dua thread sekaligus (tanpa lock).
+class BattleActor implements Runnable {
+    private static final int MAX_BATCH = 64;
+    
+    // Pesan aksi: side 0/1, action ATTACK/SKILL/SPECIAL
+    static final class Command {
+        final int side;
+        final String action;
+        final int skillIndex;
+        final CompletableFuture<String> reply = new CompletableFuture<>();
+        
+        Command(int side, String action, int skillIndex) {
+            this.side = side;
+            this.action = action;
+            this.skillIndex = skillIndex;
+        }
+    }
+    
+    private final long id;
+    private final Character[] fighters;
+    private final CooldownWheel wheel = new CooldownWheel();
+    private final StatusEffectEngine effects = new StatusEffectEngine();
+    private final Queue<Command> mailbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Executor executor;
+    
+    BattleActor(long id, Character a, Character b, long seed, Executor executor) {
+        this.id = id;
+        this.fighters = new Character[] {a, b};
+        this.executor = executor;
+        RandomSource random = RandomSource.seeded(seed);
+        for (Character fighter : fighters) {
+            fighter.setRandomSource(random);
+            fighter.setCooldownWheel(wheel);
+            fighter.setStatusEffectEngine(effects);
+        }
+    }
+    
+    public long getId() { return id; }
+    
+    // Mengirim pesan ke mailbox; actor dijadwalkan jika belum berjalan
+    CompletableFuture<String> tell(Command command) {
+        mailbox.add(command);
+        if (scheduled.compareAndSet(false, true)) {
+            schedule();
+        }
+        return command.reply;
+    }
+    
+    private void schedule() {
+        try {
+            executor.execute(this);
+        } catch (RejectedExecutionException e) {
+            // Executor sudah shutdown: actor tidak akan berjalan lagi, jadi pesan yang tersisa ditolak
+            scheduled.set(false);
+            Command command;
+            while ((command = mailbox.poll()) != null) {
+                command.reply.complete("ERROR server shutting down");
+            }
+        }
+    }
+    
+    @Override
+    public void run() {
+        Command command;
+        int processed = 0;
+        while (processed++ < MAX_BATCH && (command = mailbox.poll()) != null) {
+            try {
+                command.reply.complete(handle(command));
+            } catch (RuntimeException e) {
+                command.reply.complete("ERROR " + e.getMessage());
+            }
+        }
+        scheduled.set(false);
+        // Pesan yang masuk setelah loop selesai harus tetap diproses
+        if (!mailbox.isEmpty() && scheduled.compareAndSet(false, true)) {
+            schedule();
+        }
+    }
+    
+    private String handle(Command command) {
+        if (!isOngoing()) {
+            return "RESULT 0 " + status();
+        }
+        Character actor = fighters[command.side];
+        Character target = fighters[1 - command.side];
+        int value;
+        switch (command.action) {
+            case "ATTACK":
+                value = actor.basicAttack(target);
+                break;
+            case "SKILL":
+                Skill skill = command.skillIndex >= 0 && command.skillIndex < actor.getSkillCount()
+                        ? actor.getSkill(command.skillIndex) : null;
+                value = actor.useSkill(command.skillIndex,
+                        skill != null && skill.isSupportive() ? actor : target);
+                break;
+            case "SPECIAL":
+                actor.useSpecialAbility(target);
+                value = 0;
+                break;
+            default:
+                return "ERROR unknown action " + command.action;
+        }
+        wheel.advance();
+        effects.advance();
+        return "RESULT " + value + " " + status();
+    }
+    
+    private boolean isOngoing() {
+        return fighters[0].isAlive() && fighters[1].isAlive();
+    }
+    
+    private String status() {
+        String state = isOngoing() ? "ONGOING" : fighters[0].isAlive() ? "A_WON" : "B_WON";
+        return fighters[0].getHealth() + " " + fighters[1].getHealth() + " " + state;
+    }
+}
+
+// Server pertarungan lokal berbasis socket dengan satu actor per pertarungan
+// Protokol teks per baris:
+//   START <classA> <classB> [seed]      -> BATTLE <id>
+//   ACTION <id> <side> ATTACK           -> RESULT <value> <hpA> <hpB> <state>
+//   ACTION <id> <side> SKILL <index>
+//   ACTION <id> <side> SPECIAL
+//   END <id>                            -> ENDED <id>
+// Setiap koneksi dilayani satu (virtual) thread yang boleh memblokir saat menunggu actor.
+// Pertarungan yang belum di-END saat koneksi putus dihapus bersama koneksinya.
+class BattleServer implements AutoCloseable {
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = ServerExecutors.perTask();
+    private final ExecutorService actors = ServerExecutors.perTask();
+    private final Map<Long, BattleActor> battles = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private volatile boolean running = true;
+    
+    public BattleServer(int port) throws IOException {
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 4096);
+    }
+    
+    public int getPort() { return serverSocket.getLocalPort(); }
+    public int getActiveBattles() { return battles.size(); }
+    
+    public void start() {
+        Thread acceptor = new Thread(() -> {
+            while (running) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    socket.setTcpNoDelay(true);
+                    connections.execute(() -> serve(socket));
+                } catch (IOException e) {
+                    if (running) {
+                        System.err.println("Accept failed: " + e.getMessage());
+                    }
+                }
+            }
+        }, "battle-server-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+    
+    private void serve(Socket socket) {
+        Set<Long> owned = new HashSet<>();
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                out.write(handle(line, owned));
+                out.write('\n');
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Klien memutus koneksi tanpa END; pertarungannya dibersihkan di bawah
+        } finally {
+            for (Long id : owned) {
+                battles.remove(id);
+            }
+        }
+    }
+    
+    String handle(String line) {
+        return handle(line, new HashSet<>());
+    }
+    
+    // owned: id pertarungan yang dimulai lewat koneksi ini dan belum di-END
+    private String handle(String line, Set<Long> owned) {
+        String[] parts = line.trim().split("\\s+");
+        try {
+            switch (parts[0]) {
+                case "START": {
+                    long id = nextId.incrementAndGet();
+                    long seed = parts.length > 3 ? Long.parseLong(parts[3]) : System.nanoTime();
+                    Character a = CharacterClasses.create(CharacterClasses.idOf(parts[1]), "A" + id);
+                    Character b = CharacterClasses.create(CharacterClasses.idOf(parts[2]), "B" + id);
+                    battles.put(id, new BattleActor(id, a, b, seed, actors));
+                    owned.add(id);
+                    return "BATTLE " + id;
+                }
+                case "ACTION": {
+                    BattleActor actor = battles.get(Long.parseLong(parts[1]));
+                    if (actor == null) return "ERROR unknown battle " + parts[1];
+                    int skill = parts.length > 4 ? Integer.parseInt(parts[4]) : -1;
+                    return actor.tell(new BattleActor.Command(Integer.parseInt(parts[2]), parts[3], skill)).join();
+                }
+                case "END": {
+                    long id = Long.parseLong(parts[1]);
+                    battles.remove(id);
+                    owned.remove(id);
+                    return "ENDED " + parts[1];
+                }
+                default:
+                    return "ERROR unknown command " + parts[0];
+            }
+        } catch (RuntimeException e) {
+            return "ERROR " + e.getMessage();
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        connections.shutdownNow();
+        actors.shutdownNow();
+    }
+    
+    // Jalankan: java -cp <output> BattleServer [port]
+    public static void main(String[] args) throws Exception {
+        GameOutput.setEnabled(false);
+        BattleServer server = new BattleServer(args.length > 0 ? Integer.parseInt(args[0]) : 7070);
+        server.start();
+        System.out.println("Battle server listening on port " + server.getPort());
+        Thread.currentThread().join();
+    }
+}
+
+// Generator beban lokal: banyak klien simulasi yang masing-masing membuka koneksi,
+// memulai pertarungan, lalu mengirim aksi sampai selesai; melaporkan persentil latensi aksi
+class BattleLoadGenerator {
+    private static final String[] CLASSES = {"WARRIOR", "MAGE", "ARCHER", "LEGENDARY_KNIGHT"};
+    
+    // Jalankan: java -cp <output> BattleLoadGenerator [klien] [aksiPerKlien]
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int actionsPerClient = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        
+        GameOutput.setEnabled(false);
+        try (BattleServer server = new BattleServer(0)) {
+            server.start();
+            long[][] latencies = run(server.getPort(), clients, actionsPerClient);
+            report(latencies);
+        }
+    }
+    
+    static long[][] run(int port, int clients, int actionsPerClient) throws InterruptedException {
+        long[][] latencies = new long[clients][];
+        ExecutorService executor = ServerExecutors.perTask();
+        CountDownLatch done = new CountDownLatch(clients);
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            executor.execute(() -> {
+                try {
+                    latencies[client] = runClient(port, client, actionsPerClient);
+                } catch (IOException e) {
+                    latencies[client] = new long[0];
+                    System.err.println("Client " + client + " failed: " + e.getMessage());
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        executor.shutdown();
+        System.out.println(String.format("%d clients finished in %.2f s", clients, (System.nanoTime() - start) / 1e9));
+        return latencies;
+    }
+    
+    private static long[] runClient(int port, int client, int actions) throws IOException {
+        long[] samples = new long[actions];
+        int count = 0;
+        SplittableRandom random = new SplittableRandom(client);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            String battle = request(in, out, "START " + CLASSES[random.nextInt(CLASSES.length)] + " "
+                    + CLASSES[random.nextInt(CLASSES.length)] + " " + client).substring(7);
+            
+            while (count < actions) {
+                int side = count % 2;
+                String action = random.nextInt(4) == 0 ? "SKILL " + random.nextInt(2) : "ATTACK";
+                long begin = System.nanoTime();
+                String reply = request(in, out, "ACTION " + battle + " " + side + " " + action);
+                samples[count++] = System.nanoTime() - begin;
+                if (!reply.endsWith("ONGOING")) {
+                    request(in, out, "END " + battle);
+                    battle = request(in, out, "START " + CLASSES[random.nextInt(CLASSES.length)] + " "
+                            + CLASSES[random.nextInt(CLASSES.length)] + " " + random.nextLong()).substring(7);
+                }
+            }
+            request(in, out, "END " + battle);
+        }
+        return Arrays.copyOf(samples, count);
+    }
+    
+    private static String request(BufferedReader in, BufferedWriter out, String line) throws IOException {
+        out.write(line);
+        out.write('\n');
+        out.flush();
+        String reply = in.readLine();
+        if (reply == null) throw new IOException("Server closed connection");
+        return reply;
+    }
+    
+    static void report(long[][] latencies) {
+        int total = 0;
+        for (long[] samples : latencies) total += samples.length;
+        long[] all = new long[total];
+        int position = 0;
+        for (long[] samples : latencies) {
+            System.arraycopy(samples, 0, all, position, samples.length);
+            position += samples.length;
+        }
+        Arrays.sort(all);
+        if (total == 0) {
+            System.out.println("No samples");
+            return;
+        }
+        System.out.println("Actions: " + total);
+        for (double p : new double[] {50, 90, 99, 99.9}) {
+            long value = all[(int) Math.min(total - 1, Math.ceil(p / 100 * total) - 1)];
+            System.out.println(String.format("p%-5s %8.1f us", p, value / 1e3));
+        }
+        System.out.println(String.format("max    %8.1f us", all[total - 1] / 1e3));
+    }
+}
+
+// AI pengambil keputusan berbasis rollout Monte Carlo (flat MCTS dengan UCB1)
+// Setiap kandidat aksi (basic attack, skill, special ability, beserta targetnya) dinilai
+// dengan banyak rollout acak cepat atas salinan state pertarungan dalam array primitif.
+// Rollout berjalan paralel di beberapa worker sampai batas waktu per keputusan habis;
+// buffer rollout per thread dipakai ulang sehingga tidak ada sampah per rollout.
+class MonteCarloAI {
+    static final int ATTACK = 0;
+    static final int SKILL = 1;
+    static final int SPECIAL = 2;
+    
+    private static final int MAX_SKILLS = 8;
+    private static final double EXPLORATION = 1.4;
+    private static final ThreadLocal<RolloutState> BUFFERS = new ThreadLocal<>();
+    
+    private final long budgetNanos;
+    private final int parallelism;
+    private int horizon = 20; // jumlah ronde maksimum per rollout
+    
+    public MonteCarloAI(long budgetNanos, int parallelism) {
+        this.budgetNanos = budgetNanos;
+        this.parallelism = Math.max(1, parallelism);
+    }
+    
+    // Default: 5 ms per keputusan, satu worker per core
+    public MonteCarloAI() {
+        this(5_000_000L, Runtime.getRuntime().availableProcessors());
+    }
+    
+    public void setHorizon(int horizon) { this.horizon = horizon; }
+    
+    // Hasil keputusan AI
+    static final class Decision {
+        final int action;
+        final int skillIndex;
+        final Character target;
+        final double expectedScore;
+        final long rollouts;
+        
+        Decision(int action, int skillIndex, Character target, double expectedScore, long rollouts) {
+            this.action = action;
+            this.skillIndex = skillIndex;
+            this.target = target;
+            this.expectedScore = expectedScore;
+            this.rollouts = rollouts;
+        }
+        
+        // Menjalankan aksi terpilih pada karakter sebenarnya
+        public void apply(Character actor) {
+            if (target == null) return;
+            switch (action) {
+                case SKILL: actor.useSkill(skillIndex, target); break;
+                case SPECIAL: actor.useSpecialAbility(target); break;
+                default: actor.basicAttack(target); break;
+            }
+        }
+        
+        public int getAction() { return action; }
+        public int getSkillIndex() { return skillIndex; }
+        public Character getTarget() { return target; }
+        public double getExpectedScore() { return expectedScore; }
+        public long getRollouts() { return rollouts; }
+        
+        @Override
+        public String toString() {
+            String name = action == SKILL ? "SKILL " + skillIndex : action == SPECIAL ? "SPECIAL" : "ATTACK";
+            return String.format("%s -> %s (score %.3f, %d rollouts)", name,
+                    target != null ? target.getName() : "-", expectedScore, rollouts);
+        }
+    }
+    
+    public Decision decide(Character actor, Party allies, Party enemies) {
+        RolloutState root = RolloutState.capture(actor, allies, enemies);
+        int self = root.indexOf(actor);
+        
+        // Kandidat: {action, skill, targetIndex}
+        List<int[]> candidates = new ArrayList<>();
+        for (int t = 0; t < root.count; t++) {
+            if (root.side[t] != root.side[self] && root.hp[t] > 0) candidates.add(new int[] {ATTACK, -1, t});
+        }
+        for (int s = 0; s < root.skillCount[self]; s++) {
+            int slot = self * MAX_SKILLS + s;
+            if (root.ready[slot] > 0 || root.mana[self] < root.skillCost[slot]) continue;
+            for (int t = 0; t < root.count; t++) {
+                boolean ally = root.side[t] == root.side[self];
+                if (root.hp[t] > 0 && ally == root.skillSupport[slot]) candidates.add(new int[] {SKILL, s, t});
+            }
+        }
+        if (!candidates.isEmpty() && root.cls[self] != CharacterClasses.ARCHER) {
+            candidates.add(new int[] {SPECIAL, -1, candidates.get(0)[2]});
+        }
+        if (candidates.isEmpty()) {
+            return new Decision(ATTACK, -1, null, 0, 0);
+        }
+        
+        long deadline = System.nanoTime() + budgetNanos;
+        int k = candidates.size();
+        List<ForkJoinTask<double[]>> workers = new ArrayList<>();
+        for (int w = 0; w < parallelism; w++) {
+            workers.add(ForkJoinPool.commonPool().submit(() -> search(root, self, candidates, deadline)));
+        }
+        
+        double[] totals = new double[2 * k];
+        for (ForkJoinTask<double[]> worker : workers) {
+            double[] local = worker.join();
+            for (int i = 0; i < totals.length; i++) totals[i] += local[i];
+        }
+        
+        int best = 0;
+        double bestMean = -1;
+        long rollouts = 0;
+        for (int c = 0; c < k; c++) {
+            rollouts += (long) totals[k + c];
+            double mean = totals[k + c] == 0 ? 0 : totals[c] / totals[k + c];
+            if (mean > bestMean) {
+                bestMean = mean;
+                best = c;
+            }
+        }
+        int[] chosen = candidates.get(best);
+        return new Decision(chosen[0], chosen[1], root.characters[chosen[2]], bestMean, rollouts);
+    }
+    
+    // Satu worker: bandit UCB1 lokal atas kandidat sampai deadline; hasil {sum[k], visits[k]}
+    private double[] search(RolloutState root, int self, List<int[]> candidates, long deadline) {
+        int k = candidates.size();
+        double[] result = new double[2 * k];
+        RolloutState state = BUFFERS.get();
+        if (state == null || state.capacity < root.count) {
+            state = new RolloutState(Math.max(root.count, 16));
+            BUFFERS.set(state);
+        }
+        SplittableRandom random = new SplittableRandom(ThreadLocalRandom.current().nextLong());
+        
+        long total = 0;
+        do {
+            for (int batch = 0; batch < 16; batch++) {
+                int c = select(result, k, total);
+                int[] candidate = candidates.get(c);
+                state.copyFrom(root);
+                state.act(self, candidate[0], candidate[1], candidate[2], random);
+                result[c] += state.playout(root.side[self], self, horizon, random);
+                result[k + c]++;
+                total++;
+            }
+        } while (System.nanoTime() < deadline);
+        return result;
+    }
+    
+    private static int select(double[] stats, int k, long total) {
+        int best = 0;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        double logTotal = Math.log(Math.max(1, total));
+        for (int c = 0; c < k; c++) {
+            double visits = stats[k + c];
+            if (visits == 0) return c;
+            double value = stats[c] / visits + EXPLORATION * Math.sqrt(logTotal / visits);
+            if (value > bestValue) {
+                bestValue = value;
+                best = c;
+            }
+        }
+        return best;
+    }
+    
+    // State pertarungan dalam array primitif; bagian statis (stat dasar, skill) dibaca dari
+    // root, bagian yang berubah disalin dengan arraycopy ke buffer rollout
+    static final class RolloutState {
+        final int capacity;
+        int count;
+        Character[] characters;
+        int tick;
+        
+        // Dinamis
+        final int[] hp, mana, bonusAttack, bonusDefense, bonusUntil, shield, ready;
+        // Statis (di-share dari root)
+        int[] maxHp, attack, defense, cls, side, skillCount, skillCost, skillCooldown, skillBase, skillRange;
+        boolean[] skillSupport;
+        
+        RolloutState(int capacity) {
+            this.capacity = capacity;
+            hp = new int[capacity];
+            mana = new int[capacity];
+            bonusAttack = new int[capacity];
+            bonusDefense = new int[capacity];
+            bonusUntil = new int[capacity];
+            shield = new int[capacity];
+            ready = new int[capacity * MAX_SKILLS];
+        }
+        
+        static RolloutState capture(Character actor, Party allies, Party enemies) {
+            List<Character> all = new ArrayList<>(allies.getMembers());
+            all.addAll(enemies.getMembers());
+            if (!all.contains(actor)) all.add(0, actor);
+            
+            int n = all.size();
+            RolloutState s = new RolloutState(n);
+            s.count = n;
+            s.characters = all.toArray(new Character[0]);
+            s.maxHp = new int[n];
+            s.attack = new int[n];
+            s.defense = new int[n];
+            s.cls = new int[n];
+            s.side = new int[n];
+            s.skillCount = new int[n];
+            s.skillCost = new int[n * MAX_SKILLS];
+            s.skillCooldown = new int[n * MAX_SKILLS];
+            s.skillBase = new int[n * MAX_SKILLS];
+            s.skillRange = new int[n * MAX_SKILLS];
+            s.skillSupport = new boolean[n * MAX_SKILLS];
+            
+            for (int i = 0; i < n; i++) {
+                Character c = s.characters[i];
+                s.hp[i] = c.getHealth();
+                s.maxHp[i] = c.getMaxHealth();
+                s.mana[i] = c.getMana();
+                s.attack[i] = c.getEffectiveAttack();
+                s.defense[i] = c.getEffectiveDefense();
+                s.cls[i] = CharacterClasses.idOf(c);
+                s.side[i] = enemies.getMembers().contains(c) ? 1 : 0;
+                if (c.statusEffects != null && c.statusEffects.hasShield()) s.shield[i] = 50;
+                
+                s.skillCount[i] = Math.min(MAX_SKILLS, c.getSkillCount());
+                for (int k = 0; k < s.skillCount[i]; k++) {
+                    Skill skill = c.getSkill(k);
+                    int slot = i * MAX_SKILLS + k;
+                    s.skillCost[slot] = skill.getManaCost();
+                    s.skillCooldown[slot] = skill.getCooldownTicks();
+                    s.skillBase[slot] = skill.getBaseValue();
+                    s.skillRange[slot] = skill.getValueRange();
+                    s.skillSupport[slot] = skill.isSupportive();
+                    if (c.isSkillOnCooldown(k)) {
+                        s.ready[slot] = Math.min(1_000_000, c.getSkillRemainingTicks(k));
+                    }
+                }
+            }
+            return s;
+        }
+        
+        int indexOf(Character character) {
+            for (int i = 0; i < count; i++) {
+                if (characters[i] == character) return i;
+            }
+            return -1;
+        }
+        
+        void copyFrom(RolloutState root) {
+            count = root.count;
+            characters = root.characters;
+            tick = 0;
+            maxHp = root.maxHp;
+            attack = root.attack;
+            defense = root.defense;
+            cls = root.cls;
+            side = root.side;
+            skillCount = root.skillCount;
+            skillCost = root.skillCost;
+            skillCooldown = root.skillCooldown;
+            skillBase = root.skillBase;
+            skillRange = root.skillRange;
+            skillSupport = root.skillSupport;
+            System.arraycopy(root.hp, 0, hp, 0, count);
+            System.arraycopy(root.mana, 0, mana, 0, count);
+            System.arraycopy(root.shield, 0, shield, 0, count);
+            System.arraycopy(root.ready, 0, ready, 0, count * MAX_SKILLS);
+            Arrays.fill(bonusAttack, 0, count, 0);
+            Arrays.fill(bonusDefense, 0, count, 0);
+            Arrays.fill(bonusUntil, 0, count, 0);
+        }
+        
+        void act(int i, int action, int skill, int target, SplittableRandom random) {
+            if (action == SKILL) {
+                int slot = i * MAX_SKILLS + skill;
+                if (ready[slot] <= tick && mana[i] >= skillCost[slot]) {
+                    mana[i] -= skillCost[slot];
+                    ready[slot] = tick + skillCooldown[slot];
+                    int value = skillBase[slot] + (skillRange[slot] > 0 ? random.nextInt(skillRange[slot]) : 0);
+                    if (!skillSupport[slot]) {
+                        damage(target, value);
+                    } else if (value > 0) {
+                        hp[target] = Math.min(maxHp[target], hp[target] + value);
+                    } else {
+                        bonusDefense[target] += 10;
+                        bonusUntil[target] = tick + 3;
+                    }
+                    return;
+                }
+            } else if (action == SPECIAL) {
+                special(i);
+                return;
+            }
+            int damage = attack[i] + bonusAttack[i] + random.nextInt(10) - defense[target] - bonusDefense[target];
+            damage(target, Math.max(1, damage));
+        }
+        
+        private void special(int i) {
+            switch (cls[i]) {
+                case CharacterClasses.WARRIOR:
+                    bonusAttack[i] += 10;
+                    bonusDefense[i] -= 5;
+                    bonusUntil[i] = tick + 3;
+                    break;
+                case CharacterClasses.MAGE:
+                    shield[i] = 50;
+                    break;
+                case CharacterClasses.LEGENDARY_KNIGHT:
+                    bonusAttack[i] += attack[i];
+                    bonusDefense[i] += defense[i];
+                    bonusUntil[i] = tick + 3;
+                    break;
+                default:
+                    break;
+            }
+        }
+        
+        private void damage(int target, int amount) {
+            if (shield[target] > 0) {
+                int absorbed = Math.min(amount, Math.min(shield[target], mana[target]));
+                mana[target] -= absorbed;
+                shield[target] = mana[target] == 0 ? 0 : shield[target] - absorbed;
+                amount -= absorbed;
+            }
+            hp[target] = Math.max(0, hp[target] - amount);
+        }
+        
+        // Rollout acak sampai satu sisi habis atau horizon; skor 1 = menang, 0 = kalah
+        double playout(int mySide, int first, int rounds, SplittableRandom random) {
+            boolean skipUntilFirst = true;
+            for (int round = 0; round < rounds; round++) {
+                for (int i = 0; i < count; i++) {
+                    if (skipUntilFirst) {
+                        if (i == first) skipUntilFirst = false;
+                        continue;
+                    }
+                    if (hp[i] <= 0) continue;
+                    int target = randomAlive(1 - side[i], random);
+                    if (target < 0) return score(mySide);
+                    int skill = skillCount[i] > 0 && random.nextInt(3) == 0 ? random.nextInt(skillCount[i]) : -1;
+                    int slot = i * MAX_SKILLS + skill;
+                    if (skill >= 0 && skillSupport[slot]) {
+                        // Skill pendukung yang belum siap diganti serangan biasa ke musuh,
+                        // bukan fallback act() yang akan memukul diri sendiri
+                        boolean usable = ready[slot] <= tick && mana[i] >= skillCost[slot];
+                        act(i, usable ? SKILL : ATTACK, skill, usable ? i : target, random);
+                    } else {
+                        act(i, skill >= 0 ? SKILL : ATTACK, skill, target, random);
+                    }
+                }
+                tick++;
+                for (int i = 0; i < count; i++) {
+                    if (bonusUntil[i] != 0 && bonusUntil[i] <= tick) {
+                        bonusAttack[i] = 0;
+                        bonusDefense[i] = 0;
+                        bonusUntil[i] = 0;
+                    }
+                }
+            }
+            return score(mySide);
+        }
+        
+        private int randomAlive(int wantedSide, SplittableRandom random) {
+            int start = random.nextInt(count);
+            for (int k = 0; k < count; k++) {
+                int i = (start + k) % count;
+                if (side[i] == wantedSide && hp[i] > 0) return i;
+            }
+            return -1;
+        }
+        
+        private double score(int mySide) {
+            double mine = 0, theirs = 0;
+            int myCount = 0, theirCount = 0;
+            for (int i = 0; i < count; i++) {
+                double fraction = (double) hp[i] / maxHp[i];
+                if (side[i] == mySide) { mine += fraction; myCount++; }
+                else { theirs += fraction; theirCount++; }
+            }
+            if (theirs == 0) return 1;
+            if (mine == 0) return 0;
+            return 0.5 + 0.5 * (mine / Math.max(1, myCount) - theirs / Math.max(1, theirCount));
+        }
+    }
+}
+
+// Indeks peringkat konkuren untuk satu metrik (level, experience, damage, ...)
+// Urutan disimpan di ConcurrentSkipListMap dengan key (skor menurun, id) sehingga top-N
+// cukup O(log n + k) dan "sekitar saya" O(k log n); jumlah entry per skor disimpan di Fenwick tree
+// bertingkat sehingga rank juga O(log n). Update hanya memindahkan satu entry, tanpa sort ulang.
+// Rank memakai competition ranking: 1 + jumlah entry dengan skor lebih tinggi.
+class LeaderboardIndex<K> {
+    private static final class Entry {
+        final int id;
+        int score;
+        boolean present;
+        
+        Entry(int id) {
+            this.id = id;
+        }
+    }
+    
+    // Fenwick tree tiga tingkat atas bit skor (11/10/10 bit): pohon akar, pohon tengah per
+    // blok akar, dan daun 1024 skor. Pohon tengah dan daun dibuat saat pertama dipakai,
+    // sehingga memori mengikuti sebaran skor yang benar-benar terisi.
+    static final class ScoreCounter {
+        private static final int LEAF_BITS = 10;
+        private static final int MID_BITS = 10;
+        private static final int LEAF = 1 << LEAF_BITS;
+        private static final int MID = 1 << MID_BITS;
+        private static final int ROOT = 1 << (31 - LEAF_BITS - MID_BITS);
+        
+        private final AtomicIntegerArray root = new AtomicIntegerArray(ROOT + 1);
+        private final AtomicReferenceArray<AtomicIntegerArray> mids = new AtomicReferenceArray<>(ROOT);
+        private final AtomicReferenceArray<AtomicReferenceArray<AtomicIntegerArray>> leaves =
+                new AtomicReferenceArray<>(ROOT);
+        private final AtomicInteger total = new AtomicInteger();
+        
+        void add(int score, int delta) {
+            int hi = score >>> (LEAF_BITS + MID_BITS);
+            int mid = (score >>> LEAF_BITS) & (MID - 1);
+            
+            AtomicReferenceArray<AtomicIntegerArray> block = leaves.get(hi);
+            if (block == null) {
+                leaves.compareAndSet(hi, null, new AtomicReferenceArray<>(MID));
+                block = leaves.get(hi);
+            }
+            AtomicIntegerArray leaf = block.get(mid);
+            if (leaf == null) {
+                block.compareAndSet(mid, null, new AtomicIntegerArray(LEAF + 1));
+                leaf = block.get(mid);
+            }
+            AtomicIntegerArray midTree = mids.get(hi);
+            if (midTree == null) {
+                mids.compareAndSet(hi, null, new AtomicIntegerArray(MID + 1));
+                midTree = mids.get(hi);
+            }
+            
+            addTree(leaf, score & (LEAF - 1), delta);
+            addTree(midTree, mid, delta);
+            addTree(root, hi, delta);
+            total.addAndGet(delta);
+        }
+        
+        // Jumlah entry dengan skor <= score
+        int countAtMost(int score) {
+            int hi = score >>> (LEAF_BITS + MID_BITS);
+            int mid = (score >>> LEAF_BITS) & (MID - 1);
+            int count = prefix(root, hi);
+            AtomicIntegerArray midTree = mids.get(hi);
+            if (midTree != null) {
+                count += prefix(midTree, mid);
+                AtomicIntegerArray leaf = leaves.get(hi).get(mid);
+                if (leaf != null) {
+                    count += prefix(leaf, (score & (LEAF - 1)) + 1);
+                }
+            }
+            return count;
+        }
+        
+        int countAbove(int score) {
+            return total.get() - countAtMost(score);
+        }
+        
+        private static void addTree(AtomicIntegerArray tree, int index, int delta) {
+            for (int i = index + 1; i < tree.length(); i += i & -i) {
+                tree.addAndGet(i, delta);
+            }
+        }
+        
+        // Jumlah `count` slot pertama
+        private static int prefix(AtomicIntegerArray tree, int count) {
+            int sum = 0;
+            for (int i = count; i > 0; i -= i & -i) {
+                sum += tree.get(i);
+            }
+            return sum;
+        }
+    }
+    
+    private final ConcurrentSkipListMap<Long, K> order = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<K, Entry> entries = new ConcurrentHashMap<>();
+    private final ScoreCounter counter = new ScoreCounter();
+    private final AtomicInteger nextId = new AtomicInteger();
+    
+    private static long key(int score, int id) {
+        return ((long) (Integer.MAX_VALUE - score) << 32) | (id & 0xFFFFFFFFL);
+    }
+    
+    // Mengubah skor entry (skor negatif dianggap 0); mengembalikan skor sebelumnya
+    public int set(K item, int score) {
+        score = Math.max(0, score);
+        Entry entry = entry(item);
+        synchronized (entry) {
+            int previous = entry.score;
+            if (entry.present) {
+                if (previous == score) return previous;
+                order.remove(key(previous, entry.id));
+                counter.add(previous, -1);
+            }
+            entry.score = score;
+            entry.present = true;
+            order.put(key(score, entry.id), item);
+            counter.add(score, 1);
+            return previous;
+        }
+    }
+    
+    // Menambah skor secara inkremental (saturasi di Integer.MAX_VALUE); mengembalikan skor baru
+    public int add(K item, int delta) {
+        Entry entry = entry(item);
+        synchronized (entry) {
+            int score = (int) Math.min(Integer.MAX_VALUE, (long) entry.score + delta);
+            set(item, score);
+            return Math.max(0, score);
+        }
+    }
+    
+    public void remove(K item) {
+        Entry entry = entries.remove(item);
+        if (entry == null) return;
+        synchronized (entry) {
+            if (entry.present) {
+                order.remove(key(entry.score, entry.id));
+                counter.add(entry.score, -1);
+                entry.present = false;
+            }
+        }
+    }
+    
+    private Entry entry(K item) {
+        Entry entry = entries.get(item);
+        return entry != null ? entry : entries.computeIfAbsent(item, k -> new Entry(nextId.getAndIncrement()));
+    }
+    
+    public boolean contains(K item) {
+        return entries.containsKey(item);
+    }
+    
+    public int getScore(K item) {
+        Entry entry = entries.get(item);
+        return entry != null ? entry.score : 0;
+    }
+    
+    // Rank mulai dari 1; 0 jika item tidak ada di leaderboard
+    public int rank(K item) {
+        Entry entry = entries.get(item);
+        if (entry == null) return 0;
+        return 1 + counter.countAbove(entry.score);
+    }
+    
+    // Jumlah entry dengan skor lebih tinggi dari score
+    public int countAbove(int score) {
+        return counter.countAbove(Math.max(0, score));
+    }
+    
+    public List<K> top(int n) {
+        List<K> result = new ArrayList<>(Math.min(n, 1024));
+        for (K item : order.values()) {
+            if (result.size() == n) break;
+            result.add(item);
+        }
+        return result;
+    }
+    
+    // Entry di sekitar item: sampai `before` di atasnya, item itu sendiri, dan `after` di bawahnya
+    public List<K> around(K item, int before, int after) {
+        Entry entry = entries.get(item);
+        if (entry == null) return List.of();
+        long key;
+        synchronized (entry) {
+            key = key(entry.score, entry.id);
+        }
+        
+        List<K> result = new ArrayList<>(before + after + 1);
+        for (K above : order.headMap(key, false).descendingMap().values()) {
+            if (result.size() == before) break;
+            result.add(above);
+        }
+        Collections.reverse(result);
+        int limit = result.size() + after + 1;
+        for (K below : order.tailMap(key, true).values()) {
+            if (result.size() == limit) break;
+            result.add(below);
+        }
+        return result;
+    }
+    
+    public int size() {
+        return entries.size();
+    }
+}
+
+// Leaderboard karakter dan party berdasarkan level, total experience, dan damage
+// Bisa dipasang sebagai sink CombatEventBus sehingga skor diperbarui inkremental dari event
+// combat, atau dipanggil langsung lewat record*(). Skor party adalah jumlah skor anggotanya
+// dan diperbarui dengan delta setiap kali skor anggota berubah.
+class Leaderboards implements CombatEventSink {
+    enum Metric { LEVEL, EXPERIENCE, DAMAGE }
+    
+    private final List<LeaderboardIndex<Character>> characters = new ArrayList<>();
+    private final List<LeaderboardIndex<Party>> parties = new ArrayList<>();
+    private final ConcurrentHashMap<Character, Party> partyOf = new ConcurrentHashMap<>();
+    
+    public Leaderboards() {
+        for (int i = 0; i < Metric.values().length; i++) {
+            characters.add(new LeaderboardIndex<>());
+            parties.add(new LeaderboardIndex<>());
+        }
+    }
+    
+    // Total experience yang sudah dikumpulkan (experience disimpan relatif terhadap level)
+    static int totalExperience(Character c) {
+        return (int) Math.min(Integer.MAX_VALUE, ExperienceCurve.totalExperience(c));
+    }
+    
+    // Mendaftarkan karakter dengan level dan experience saat ini
+    public void track(Character c) {
+        update(Metric.LEVEL, c, c.getLevel());
+        update(Metric.EXPERIENCE, c, totalExperience(c));
+        if (!index(Metric.DAMAGE).contains(c)) {
+            update(Metric.DAMAGE, c, 0);
+        }
+    }
+    
+    // Mendaftarkan party beserta anggotanya (anggota yang ditambahkan kemudian perlu trackParty ulang)
+    public void trackParty(Party party) {
+        for (Character member : party.getMembers()) {
+            Party previous = partyOf.put(member, party);
+            if (previous == party) continue;
+            for (Metric metric : Metric.values()) {
+                int score = index(metric).getScore(member);
+                if (previous != null) partyIndex(metric).add(previous, -score);
+                partyIndex(metric).add(party, score);
+            }
+        }
+        for (Metric metric : Metric.values()) {
+            partyIndex(metric).add(party, 0);
+        }
+    }
+    
+    public void recordDamage(Character c, int damage) {
+        if (damage > 0) {
+            index(Metric.DAMAGE).add(c, damage);
+            propagate(Metric.DAMAGE, c, damage);
+        }
+    }
+    
+    public void recordExperience(Character c, int experience) {
+        if (experience > 0) {
+            index(Metric.EXPERIENCE).add(c, experience);
+            propagate(Metric.EXPERIENCE, c, experience);
+        }
+    }
+    
+    public void recordLevel(Character c, int level) {
+        update(Metric.LEVEL, c, level);
+    }
+    
+    private void update(Metric metric, Character c, int score) {
+        int previous = index(metric).set(c, score);
+        propagate(metric, c, score - previous);
+    }
+    
+    private void propagate(Metric metric, Character c, int delta) {
+        Party party = partyOf.get(c);
+        if (party != null && delta != 0) {
+            partyIndex(metric).add(party, delta);
+        }
+    }
+    
+    @Override
+    public void onEvent(CombatEvent event) {
+        switch (event.type) {
+            case ATTACK:
+                recordDamage(event.source, event.value);
+                break;
+            case SKILL:
+                Skill skill = SkillRegistry.byName(event.detail);
+                if (skill != null && !skill.isSupportive()) {
+                    recordDamage(event.source, event.value);
+                }
+                break;
+            case EXPERIENCE:
+                recordExperience(event.source, event.value);
+                break;
+            case LEVEL_UP:
+                recordLevel(event.source, event.value);
+                break;
+            default:
+                break;
+        }
+    }
+    
+    public LeaderboardIndex<Character> index(Metric metric) {
+        return characters.get(metric.ordinal());
+    }
+    
+    public LeaderboardIndex<Party> partyIndex(Metric metric) {
+        return parties.get(metric.ordinal());
+    }
+    
+    public int rank(Metric metric, Character c) { return index(metric).rank(c); }
+    public List<Character> top(Metric metric, int n) { return index(metric).top(n); }
+    
+    public List<Character> around(Metric metric, Character c, int radius) {
+        return index(metric).around(c, radius, radius);
+    }
+    
+    // Agregat party dalam O(1) dari skor yang dipelihara inkremental
+    public long partyTotal(Metric metric, Party party) {
+        return partyIndex(metric).getScore(party);
+    }
+    
+    public double partyAverage(Metric metric, Party party) {
+        int members = party.getMembers().size();
+        return members == 0 ? 0 : (double) partyTotal(metric, party) / members;
+    }
+    
+    public int partyRank(Metric metric, Party party) { return partyIndex(metric).rank(party); }
+    public List<Party> topParties(Metric metric, int n) { return partyIndex(metric).top(n); }
+}
+
+// Perekam pertarungan untuk replay deterministik
+// Recorder mengambil alih sumber acak (turunan dari satu seed), cooldown wheel, dan effect
+// engine semua karakter, lalu menjalankan sekaligus mencatat setiap aksi. Log biner:
+//   header: magic(4) versi(1) seed(8) partyCount(1)
+//   party : nama(UTF) memberCount(1) lalu per karakter: classId(1) nama(UTF) alive(1)
+//           level, health, maxHealth, mana, maxMana, attack, defense, experience (8 x 4)
+//           skillCount(1) skillId(1 x n)
+//   aksi  : op(1) [actor(1) target(1) skill(1) hasil(4)] untuk ATTACK/SKILL/SPECIAL,
+//           TICK hanya op, END diikuti hash state akhir(8)
+// Hasil setiap aksi ikut dicatat sehingga replay bisa menunjuk aksi pertama yang divergen.
+// Recorder sebaiknya dibuat di awal pertarungan (status effect aktif tidak ikut direkam).
+class BattleRecorder {
+    static final int MAGIC = 0x52504752; // "RPGR"
+    static final byte VERSION = 1;
+    static final byte OP_ATTACK = 0;
+    static final byte OP_SKILL = 1;
+    static final byte OP_SPECIAL = 2;
+    static final byte OP_TICK = 3;
+    static final byte OP_END = 4;
+    static final int NO_TARGET = 0xFF;
+    
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private final List<Character> combatants = new ArrayList<>();
+    private final IdentityHashMap<Character, Integer> indexes = new IdentityHashMap<>();
+    private final CooldownWheel wheel = new CooldownWheel();
+    private final StatusEffectEngine effects = new StatusEffectEngine();
+    private int actions;
+    private byte[] log;
+    
+    public BattleRecorder(long seed, Party... parties) {
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(seed);
+            out.writeByte(parties.length);
+            for (Party party : parties) {
+                out.writeUTF(party.getPartyName());
+                out.writeByte(party.getMembers().size());
+                for (Character member : party.getMembers()) {
+                    writeCharacter(member);
+                    indexes.put(member, combatants.size());
+                    combatants.add(member);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (combatants.size() >= NO_TARGET) {
+            throw new IllegalArgumentException("Too many combatants to record: " + combatants.size());
+        }
+        prepare(combatants, seed, wheel, effects);
+    }
+    
+    // Recorder dan replayer harus memasang state ini dengan urutan yang sama persis
+    static void prepare(List<Character> combatants, long seed, CooldownWheel wheel, StatusEffectEngine effects) {
+        RandomSource root = RandomSource.seeded(seed);
+        for (Character c : combatants) {
+            c.setRandomSource(root.split());
+            c.setCooldownWheel(wheel);
+            c.setStatusEffectEngine(effects);
+        }
+    }
+    
+    private void writeCharacter(Character c) throws IOException {
+        out.writeByte(CharacterClasses.idOf(c));
+        out.writeUTF(c.getName());
+        out.writeByte(c.isAlive() ? 1 : 0);
+        out.writeInt(c.level);
+        out.writeInt(c.health);
+        out.writeInt(c.maxHealth);
+        out.writeInt(c.mana);
+        out.writeInt(c.maxMana);
+        out.writeInt(c.attack);
+        out.writeInt(c.defense);
+        out.writeInt(c.experience);
+        out.writeByte(c.getSkillCount());
+        for (int i = 0; i < c.getSkillCount(); i++) {
+            out.writeByte(c.getSkillId(i));
+        }
+    }
+    
+    public int basicAttack(Character actor, Character target) {
+        int result = actor.basicAttack(target);
+        record(OP_ATTACK, actor, target, 0, result);
+        return result;
+    }
+    
+    public int useSkill(Character actor, int skillIndex, Character target) {
+        int result = actor.useSkill(skillIndex, target);
+        record(OP_SKILL, actor, target, skillIndex, result);
+        return result;
+    }
+    
+    public void useSpecialAbility(Character actor, Character target) {
+        actor.useSpecialAbility(target);
+        record(OP_SPECIAL, actor, target, 0, 0);
+    }
+    
+    // Memajukan cooldown dan status effect satu tick (akhir satu ronde)
+    public void tick() {
+        wheel.advance();
+        effects.advance();
+        write(OP_TICK);
+    }
+    
+    private void record(byte op, Character actor, Character target, int skillIndex, int result) {
+        Integer actorIndex = indexes.get(actor);
+        if (actorIndex == null) {
+            throw new IllegalArgumentException(actor.getName() + " is not part of this recording");
+        }
+        Integer targetIndex = target != null ? indexes.get(target) : null;
+        try {
+            out.writeByte(op);
+            out.writeByte(actorIndex);
+            out.writeByte(targetIndex != null ? targetIndex : NO_TARGET);
+            out.writeByte(skillIndex);
+            out.writeInt(result);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        actions++;
+    }
+    
+    private void write(byte op) {
+        try {
+            out.writeByte(op);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    // Menutup rekaman dan mengembalikan log; pemanggilan berikutnya mengembalikan log yang sama
+    public byte[] finish() {
+        if (log == null) {
+            try {
+                out.writeByte(OP_END);
+                out.writeLong(stateHash(combatants));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            log = bytes.toByteArray();
+        }
+        return log;
+    }
+    
+    public Path writeTo(Path file) throws IOException {
+        return Files.write(file, finish());
+    }
+    
+    public int getActionCount() { return actions; }
+    public List<Character> getCombatants() { return combatants; }
+    
+    // Hash state akhir yang relevan untuk combat
+    static long stateHash(List<Character> combatants) {
+        long hash = 1;
+        for (Character c : combatants) {
+            hash = hash * 31 + c.getHealth();
+            hash = hash * 31 + c.getMana();
+            hash = hash * 31 + c.getLevel();
+            hash = hash * 31 + c.getExperience();
+            hash = hash * 31 + c.getEffectiveAttack();
+            hash = hash * 31 + c.getEffectiveDefense();
+            hash = hash * 31 + (c.isAlive() ? 1 : 0);
+        }
+        return hash;
+    }
+}
+
+// Menjalankan ulang log BattleRecorder secara deterministik tanpa output konsol
+class BattleReplayer {
+    // Hasil replay satu log
+    static final class Result {
+        final List<Party> parties;
+        final int actions;
+        final int divergedAt;    // index aksi pertama yang hasilnya berbeda, -1 jika tidak ada
+        final long expectedHash;
+        final long actualHash;
+        
+        Result(List<Party> parties, int actions, int divergedAt, long expectedHash, long actualHash) {
+            this.parties = parties;
+            this.actions = actions;
+            this.divergedAt = divergedAt;
+            this.expectedHash = expectedHash;
+            this.actualHash = actualHash;
+        }
+        
+        public boolean isConsistent() {
+            return divergedAt < 0 && expectedHash == actualHash;
+        }
+        
+        public List<Party> getParties() { return parties; }
+        public int getActions() { return actions; }
+        public int getDivergedAt() { return divergedAt; }
+        
+        @Override
+        public String toString() {
+            return isConsistent() ? "consistent (" + actions + " actions)"
+                    : "diverged at action " + divergedAt + " (state hash " + Long.toHexString(expectedHash)
+                      + " -> " + Long.toHexString(actualHash) + ")";
+        }
+    }
+    
+    public static Result replay(Path file) throws IOException {
+        return replay(Files.readAllBytes(file));
+    }
+    
+    // GameOutput ditekan di thread ini selama replay; aman untuk replay paralel
+    public static Result replay(byte[] log) {
+        GameOutput.suppress();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(log))) {
+            if (in.readInt() != BattleRecorder.MAGIC) {
+                throw new IllegalArgumentException("Not a battle recording");
+            }
+            int version = in.readByte();
+            if (version != BattleRecorder.VERSION) {
+                throw new IllegalArgumentException("Unsupported recording version: " + version);
+            }
+            long seed = in.readLong();
+            
+            List<Party> parties = new ArrayList<>();
+            List<Character> combatants = new ArrayList<>();
+            int partyCount = in.readUnsignedByte();
+            for (int p = 0; p < partyCount; p++) {
+                Party party = new Party(in.readUTF());
+                int members = in.readUnsignedByte();
+                for (int m = 0; m < members; m++) {
+                    Character c = readCharacter(in);
+                    party.addMember(c);
+                    combatants.add(c);
+                }
+                parties.add(party);
+            }
+            
+            CooldownWheel wheel = new CooldownWheel();
+            StatusEffectEngine effects = new StatusEffectEngine();
+            BattleRecorder.prepare(combatants, seed, wheel, effects);
+            
+            int actions = 0;
+            int divergedAt = -1;
+            while (true) {
+                byte op = in.readByte();
+                if (op == BattleRecorder.OP_END) {
+                    long expected = in.readLong();
+                    return new Result(parties, actions, divergedAt, expected, BattleRecorder.stateHash(combatants));
+                }
+                if (op == BattleRecorder.OP_TICK) {
+                    wheel.advance();
+                    effects.advance();
+                    continue;
+                }
+                
+                Character actor = combatants.get(in.readUnsignedByte());
+                int targetIndex = in.readUnsignedByte();
+                Character target = targetIndex != BattleRecorder.NO_TARGET ? combatants.get(targetIndex) : null;
+                int skillIndex = in.readByte();
+                int expected = in.readInt();
+                int actual;
+                switch (op) {
+                    case BattleRecorder.OP_ATTACK: actual = actor.basicAttack(target); break;
+                    case BattleRecorder.OP_SKILL: actual = actor.useSkill(skillIndex, target); break;
+                    case BattleRecorder.OP_SPECIAL: actor.useSpecialAbility(target); actual = 0; break;
+                    default: throw new IllegalArgumentException("Unknown replay op: " + op);
+                }
+                if (actual != expected && divergedAt < 0) {
+                    divergedAt = actions;
+                }
+                actions++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            GameOutput.resume();
+        }
+    }
+    
+    private static Character readCharacter(DataInputStream in) throws IOException {
+        byte classId = in.readByte();
+        Character c = CharacterClasses.create(classId, in.readUTF());
+        c.isAlive = in.readByte() != 0;
+        c.level = in.readInt();
+        c.health = in.readInt();
+        c.maxHealth = in.readInt();
+        c.mana = in.readInt();
+        c.maxMana = in.readInt();
+        c.attack = in.readInt();
+        c.defense = in.readInt();
+        c.experience = in.readInt();
+        c.clearSkills();
+        int skills = in.readUnsignedByte();
+        for (int i = 0; i < skills; i++) {
+            c.addSkill(in.readUnsignedByte());
+        }
+        return c;
+    }
+}
+
+// Memverifikasi banyak rekaman secara paralel untuk menangkap divergensi setelah perubahan kode
+class ReplayVerifier {
+    // Mengembalikan index log yang tidak konsisten
+    // Output ditekan oleh BattleReplayer.replay di setiap thread worker
+    public static List<Integer> verify(List<byte[]> logs) {
+        return IntStream.range(0, logs.size()).parallel()
+                .filter(i -> !BattleReplayer.replay(logs.get(i)).isConsistent())
+                .boxed()
+                .collect(Collectors.toList());
+    }
+    
+    // Memverifikasi semua file *.rpgr di direktori; mengembalikan file yang divergen
+    public static List<Path> verifyDirectory(Path directory) throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(p -> p.getFileName().toString().endsWith(".rpgr")).sorted()
+                           .collect(Collectors.toList());
+        }
+        List<byte[]> logs = new ArrayList<>(files.size());
+        for (Path file : files) {
+            logs.add(Files.readAllBytes(file));
+        }
+        List<Path> diverged = new ArrayList<>();
+        for (int index : verify(logs)) {
+            diverged.add(files.get(index));
+        }
+        return diverged;
+    }
+    
+    // Merekam satu pertarungan Warrior+Mage vs Archer+Warrior dengan kebijakan acak sederhana
+    static byte[] recordSample(long seed) {
+        Party heroes = new Party("Heroes");
+        heroes.addMember(new Warrior("Thorin"));
+        heroes.addMember(new Mage("Gandalf"));
+        Party raiders = new Party("Raiders");
+        raiders.addMember(new Archer("Robin"));
+        raiders.addMember(new Warrior("Boromir"));
+        
+        BattleRecorder recorder = new BattleRecorder(seed, heroes, raiders);
+        SplittableRandom policy = new SplittableRandom(seed);
+        for (int round = 0; round < 100 && heroes.hasAliveMembers() && raiders.hasAliveMembers(); round++) {
+            for (Character actor : recorder.getCombatants()) {
+                if (!actor.isAlive()) continue;
+                Party enemies = heroes.getMembers().contains(actor) ? raiders : heroes;
+                Character target = null;
+                for (Character enemy : enemies.getMembers()) {
+                    if (enemy.isAlive()) { target = enemy; break; }
+                }
+                if (target == null) break;
+                
+                int choice = policy.nextInt(10);
+                if (choice < 3 && actor.getSkillCount() > 0) {
+                    int skill = policy.nextInt(actor.getSkillCount());
+                    recorder.useSkill(actor, skill, actor.getSkill(skill).isSupportive() ? actor : target);
+                } else if (choice == 3) {
+                    recorder.useSpecialAbility(actor, target);
+                } else {
+                    recorder.basicAttack(actor, target);
+                }
+            }
+            recorder.tick();
+        }
+        return recorder.finish();
+    }
+    
+    public static void main(String[] args) {
+        int battles = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        GameOutput.setEnabled(false);
+        
+        long start = System.nanoTime();
+        List<byte[]> logs = IntStream.range(0, battles).parallel()
+                .mapToObj(i -> recordSample(0x5EED + i))
+                .collect(Collectors.toList());
+        long recorded = System.nanoTime();
+        long bytes = 0;
+        for (byte[] log : logs) bytes += log.length;
+        
+        List<Integer> diverged = verify(logs);
+        long verified = System.nanoTime();
+        
+        System.out.println(String.format("Recorded %d battles in %.2f s (%.0f bytes/battle)",
+                battles, (recorded - start) / 1e9, (double) bytes / battles));
+        System.out.println(String.format("Replayed and verified in %.2f s (%.0f battles/s), diverged: %d",
+                (verified - recorded) / 1e9, battles * 1e9 / (verified - recorded), diverged.size()));
+    }
+}
+
+// Kurva experience kumulatif: total experience untuk mencapai level l dari level 1
+// Level l membutuhkan l * 100 experience (sama seperti aturan lama), jadi totalnya
+// 50 * l * (l - 1). Tabel dihitung sekali; level dari total experience dicari dengan
+// binary search sehingga kenaikan banyak level sekaligus cukup O(log level).
+final class ExperienceCurve {
+    static final int MAX_LEVEL = 1000;
+    
+    // CUMULATIVE[l - 1] = total experience untuk mencapai level l
+    private static final long[] CUMULATIVE = new long[MAX_LEVEL];
+    
+    static {
+        for (int l = 2; l <= MAX_LEVEL; l++) {
+            CUMULATIVE[l - 1] = CUMULATIVE[l - 2] + (l - 1) * 100L;
+        }
+    }
+    
+    private ExperienceCurve() {}
+    
+    static long xpToReach(int level) {
+        return CUMULATIVE[Math.min(MAX_LEVEL, Math.max(1, level)) - 1];
+    }
+    
+    // Level tertinggi yang bisa dicapai dengan total experience ini
+    static int levelFor(long totalExperience) {
+        int index = Arrays.binarySearch(CUMULATIVE, totalExperience);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+    
+    // Total experience karakter (experience disimpan relatif terhadap level saat ini)
+    static long totalExperience(Character c) {
+        return xpToReach(c.getLevel()) + c.getExperience();
+    }
+}
+
+// Pembagian experience secara batch ke banyak karakter sekaligus
+// Level baru dihitung dari kurva kumulatif, pertumbuhan stat untuk semua level yang didapat
+// diterapkan secara aritmatika dari CharacterClasses.GROWTH, dan tidak ada output per
+// karakter (event EXPERIENCE dan LEVEL_UP hanya dikirim jika karakter terhubung ke event bus).
+// Set karakter besar diproses paralel; setiap karakter hanya disentuh satu thread, sedangkan
+// event dikirim belakangan dari thread pemanggil karena CombatEventBus hanya punya satu writer.
+class ExperienceRewards {
+    private static final int PARALLEL_THRESHOLD = 8192;
+    private static final String LEVEL_UP_DETAIL = "Stats increased from experience reward";
+    
+    // Ringkasan hasil pembagian reward
+    static final class Summary {
+        final int characters;
+        final long levelsGained;
+        
+        Summary(int characters, long levelsGained) {
+            this.characters = characters;
+            this.levelsGained = levelsGained;
+        }
+        
+        public int getCharacters() { return characters; }
+        public long getLevelsGained() { return levelsGained; }
+        
+        @Override
+        public String toString() {
+            return characters + " characters rewarded, " + levelsGained + " levels gained";
+        }
+    }
+    
+    // Experience yang sama untuk setiap karakter hidup (misalnya reward raid)
+    public static Summary award(List<? extends Character> characters, int experience) {
+        return award(characters, i -> experience);
+    }
+    
+    // Experience berbeda per karakter; amounts[i] untuk characters.get(i)
+    public static Summary award(List<? extends Character> characters, int[] amounts) {
+        if (amounts.length != characters.size()) {
+            throw new IllegalArgumentException("Expected " + characters.size() + " amounts, got " + amounts.length);
+        }
+        return award(characters, i -> amounts[i]);
+    }
+    
+    private static Summary award(List<? extends Character> characters, IntUnaryOperator amounts) {
+        int count = characters.size();
+        int[] granted = new int[count];
+        int[] gained = new int[count];
+        IntStream indexes = IntStream.range(0, count);
+        if (count >= PARALLEL_THRESHOLD) {
+            indexes = indexes.parallel();
+        }
+        // amounts dievaluasi sekali per karakter; nilainya dipakai ulang saat event dikirim
+        indexes.forEach(i -> {
+            granted[i] = amounts.applyAsInt(i);
+            gained[i] = apply(characters.get(i), granted[i]);
+        });
+        
+        long levels = 0;
+        for (int i = 0; i < count; i++) {
+            if (gained[i] < 0) continue;
+            levels += gained[i];
+            publish(characters.get(i), granted[i], gained[i]);
+        }
+        return new Summary(count, levels);
+    }
+    
+    // Membagi experience rata ke seluruh anggota party yang masih hidup
+    public static Summary awardParty(Party party, int totalExperience) {
+        List<Character> alive = new ArrayList<>();
+        for (Character member : party.getMembers()) {
+            if (member.isAlive()) alive.add(member);
+        }
+        if (alive.isEmpty()) return new Summary(0, 0);
+        return award(alive, totalExperience / alive.size());
+    }
+    
+    // Mengembalikan jumlah level yang didapat karakter, -1 jika reward tidak diberikan
+    // Tidak mengirim event sehingga aman dipanggil dari worker thread
+    static int apply(Character c, int experience) {
+        if (experience <= 0 || !c.isAlive()) return -1;
+        
+        long total = ExperienceCurve.totalExperience(c) + experience;
+        int target = ExperienceCurve.levelFor(total);
+        int gained = Math.max(0, target - c.level);
+        c.dirty = true;
+        if (gained > 0) {
+            c.applyGrowth(CharacterClasses.GROWTH[CharacterClasses.idOf(c)], gained);
+        }
+        c.experience = (int) Math.min(Integer.MAX_VALUE, total - ExperienceCurve.xpToReach(c.level));
+        return gained;
+    }
+    
+    // Dipanggil dari thread pemanggil setelah semua reward diterapkan
+    // Metrics menghitung per level seperti gainExperience, bukan per karakter, sehingga event
+    // langsung dipublikasikan ke bus (emit() akan menghitung LEVEL_UP sekali lagi)
+    private static void publish(Character c, int experience, int gained) {
+        if (gained > 0 && CombatMetrics.isEnabled()) {
+            CombatMetrics.levelUp(gained);
+        }
+        if (c.events == null) return;
+        c.events.publish(CombatEvent.Type.EXPERIENCE, c, null, null, experience);
+        if (gained > 0) {
+            c.events.publish(CombatEvent.Type.LEVEL_UP, c, null, LEVEL_UP_DETAIL, c.level);
+        }
+    }
+    
+    // Versi world: experience yang sama untuk entity yang dipilih
+    public static Summary award(CharacterWorld world, int[] ids, int experience) {
+        IntStream indexes = IntStream.range(0, ids.length);
+        if (ids.length >= PARALLEL_THRESHOLD) {
+            indexes = indexes.parallel();
+        }
+        long levels = indexes.mapToLong(i -> world.awardExperience(ids[i], experience)).sum();
+        return new Summary(ids.length, levels);
+    }
+}
+
+// Listener yang menerima item hasil drop
+interface LootListener {
+    void onDrop(Character defeated, String item, int quantity);
+}
+
+// Tabel loot berbobot yang dikompilasi menjadi alias table (metode Walker/Vose)
+// Sampling cukup dua angka acak: kolom acak lalu lempar koin terhadap cut kolom tersebut,
+// jadi O(1) berapa pun jumlah entry. Bobot integer sehingga tabel alias eksak.
+// Entry bisa berupa item, tabel lain (nested), atau "tidak ada drop"; drop wajib selalu keluar.
+// Tabel hasil kompilasi immutable dan diganti lewat satu volatile write, sehingga rebuild
+// tidak perlu menghentikan thread yang sedang sampling.
+class LootTable {
+    private static final int MAX_DEPTH = 8;
+    
+    // Builder entry tabel loot
+    static final class Builder {
+        private final List<String> items = new ArrayList<>();
+        private final List<LootTable> tables = new ArrayList<>();
+        private final List<int[]> weighted = new ArrayList<>(); // {weight, min, max}
+        private final List<String> guaranteedItems = new ArrayList<>();
+        private final List<int[]> guaranteedRanges = new ArrayList<>();
+        private int rolls = 1;
+        
+        public Builder add(String item, int weight) {
+            return add(item, weight, 1, 1);
+        }
+        
+        public Builder add(String item, int weight, int minQuantity, int maxQuantity) {
+            return entry(item, null, weight, minQuantity, maxQuantity);
+        }
+        
+        // Entry nested: jika terpilih, tabel tersebut di-sample (termasuk drop wajibnya)
+        public Builder addTable(LootTable table, int weight) {
+            return entry(null, table, weight, 1, 1);
+        }
+        
+        // Peluang tidak mendapat apa-apa pada satu roll
+        public Builder nothing(int weight) {
+            return entry(null, null, weight, 0, 0);
+        }
+        
+        public Builder guarantee(String item, int minQuantity, int maxQuantity) {
+            checkRange(minQuantity, maxQuantity);
+            guaranteedItems.add(item);
+            guaranteedRanges.add(new int[] {minQuantity, maxQuantity});
+            return this;
+        }
+        
+        // Jumlah roll independen ke tabel berbobot per kill
+        public Builder rolls(int rolls) {
+            if (rolls < 0) throw new IllegalArgumentException("Rolls must not be negative: " + rolls);
+            this.rolls = rolls;
+            return this;
+        }
+        
+        private Builder entry(String item, LootTable table, int weight, int min, int max) {
+            if (weight <= 0) throw new IllegalArgumentException("Weight must be positive: " + weight);
+            checkRange(min, max);
+            items.add(item);
+            tables.add(table);
+            weighted.add(new int[] {weight, min, max});
+            return this;
+        }
+        
+        private static void checkRange(int min, int max) {
+            if (min < 0 || max < min) {
+                throw new IllegalArgumentException("Invalid quantity range: " + min + ".." + max);
+            }
+        }
+        
+        Compiled compile() {
+            return new Compiled(this);
+        }
+    }
+    
+    // Alias table immutable hasil kompilasi
+    private static final class Compiled {
+        final String[] items;
+        final LootTable[] tables;
+        final int[] min;
+        final int[] max;
+        final int[] cut;      // koin < cut[kolom] memilih kolom itu sendiri, selain itu alias-nya
+        final int[] alias;
+        final int totalWeight;
+        final String[] guaranteedItems;
+        final int[] guaranteedMin;
+        final int[] guaranteedMax;
+        final int rolls;
+        
+        Compiled(Builder builder) {
+            int n = builder.weighted.size();
+            items = builder.items.toArray(new String[0]);
+            tables = builder.tables.toArray(new LootTable[0]);
+            min = new int[n];
+            max = new int[n];
+            cut = new int[n];
+            alias = new int[n];
+            
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                int[] entry = builder.weighted.get(i);
+                total += entry[0];
+                min[i] = entry[1];
+                max[i] = entry[2];
+            }
+            if (total > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Total loot weight too large: " + total);
+            }
+            totalWeight = (int) total;
+            
+            // Vose: bobot diskalakan n kali sehingga rata-rata kolom tepat totalWeight
+            long[] scaled = new long[n];
+            int[] small = new int[n];
+            int[] large = new int[n];
+            int smallCount = 0;
+            int largeCount = 0;
+            for (int i = 0; i < n; i++) {
+                scaled[i] = (long) builder.weighted.get(i)[0] * n;
+                if (scaled[i] < total) small[smallCount++] = i;
+                else large[largeCount++] = i;
+            }
+            while (smallCount > 0 && largeCount > 0) {
+                int s = small[--smallCount];
+                int l = large[largeCount - 1];
+                cut[s] = (int) scaled[s];
+                alias[s] = l;
+                scaled[l] -= total - scaled[s];
+                if (scaled[l] < total) {
+                    largeCount--;
+                    small[smallCount++] = l;
+                }
+            }
+            while (largeCount > 0) {
+                int l = large[--largeCount];
+                cut[l] = totalWeight;
+                alias[l] = l;
+            }
+            while (smallCount > 0) {
+                int s = small[--smallCount];
+                cut[s] = totalWeight;
+                alias[s] = s;
+            }
+            
+            int g = builder.guaranteedItems.size();
+            guaranteedItems = builder.guaranteedItems.toArray(new String[0]);
+            guaranteedMin = new int[g];
+            guaranteedMax = new int[g];
+            for (int i = 0; i < g; i++) {
+                guaranteedMin[i] = builder.guaranteedRanges.get(i)[0];
+                guaranteedMax[i] = builder.guaranteedRanges.get(i)[1];
+            }
+            rolls = n == 0 ? 0 : builder.rolls;
+        }
+        
+        int pick(RandomSource random) {
+            int column = random.nextInt(cut.length);
+            return random.nextInt(totalWeight) < cut[column] ? column : alias[column];
+        }
+    }
+    
+    private final String name;
+    private volatile Compiled compiled;
+    
+    public LootTable(String name, Builder builder) {
+        this.name = name;
+        this.compiled = builder.compile();
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    // Kompilasi dilakukan di thread pemanggil; sampler lain tetap memakai tabel lama sampai swap
+    public void rebuild(Builder builder) {
+        this.compiled = builder.compile();
+    }
+    
+    public void sample(RandomSource random, Character defeated, LootListener listener) {
+        sample(compiled, random, defeated, listener, 0);
+    }
+    
+    private static void sample(Compiled table, RandomSource random, Character defeated,
+                               LootListener listener, int depth) {
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("Loot tables nested too deeply (cycle?)");
+        }
+        for (int i = 0; i < table.guaranteedItems.length; i++) {
+            listener.onDrop(defeated, table.guaranteedItems[i],
+                    quantity(random, table.guaranteedMin[i], table.guaranteedMax[i]));
+        }
+        for (int roll = 0; roll < table.rolls; roll++) {
+            int entry = table.pick(random);
+            if (table.tables[entry] != null) {
+                sample(table.tables[entry].compiled, random, defeated, listener, depth + 1);
+            } else if (table.items[entry] != null) {
+                listener.onDrop(defeated, table.items[entry], quantity(random, table.min[entry], table.max[entry]));
+            }
+        }
+    }
+    
+    private static int quantity(RandomSource random, int min, int max) {
+        return min == max ? min : min + random.nextInt(max - min + 1);
+    }
+    
+    public String getName() { return name; }
+    public int getEntryCount() { return compiled.cut.length; }
+}
+
+// Menghubungkan tabel loot dengan kematian karakter
+// Tabel dipilih berdasarkan class karakter yang kalah dan di-sample dengan sumber acak
+// karakter tersebut (seed combat yang sama menghasilkan drop yang sama).
+class LootSystem {
+    private final ConcurrentHashMap<String, LootTable> tables = new ConcurrentHashMap<>();
+    private final LootListener listener;
+    private volatile LootTable defaultTable;
+    
+    public LootSystem(LootListener listener) {
+        this.listener = listener;
+    }
+    
+    public void setTable(String characterClass, LootTable table) {
+        tables.put(characterClass, table);
+    }
+    
+    // Tabel untuk class yang tidak punya tabel sendiri (null = tidak ada drop)
+    public void setDefaultTable(LootTable table) {
+        this.defaultTable = table;
+    }
+    
+    void onDefeat(Character defeated) {
+        LootTable table = tables.get(defeated.getCharacterClass());
+        if (table == null) {
+            table = defaultTable;
+        }
+        if (table != null) {
+            table.sample(defeated.getRandomSource(), defeated, listener);
+        }
+    }
+}
+
+// Listener yang menjumlahkan drop per item (aman dipakai dari banyak thread simulasi)
+class LootCounter implements LootListener {
+    private final ConcurrentHashMap<String, LongAdder> totals = new ConcurrentHashMap<>();
+    
+    @Override
+    public void onDrop(Character defeated, String item, int quantity) {
+        LongAdder total = totals.get(item);
+        if (total == null) {
+            total = totals.computeIfAbsent(item, k -> new LongAdder());
+        }
+        total.add(quantity);
+    }
+    
+    public long getTotal(String item) {
+        LongAdder total = totals.get(item);
+        return total != null ? total.sum() : 0;
+    }
+    
+    public Set<String> getItems() { return totals.keySet(); }
+}
+
+// Formula damage/healing berbasis data yang dikompilasi menjadi MethodHandle
+// Setiap formula punya MutableCallSite sendiri; kode combat memanggil dynamicInvoker-nya yang
+// disimpan di field static final, sehingga JIT bisa meng-inline formula seperti kode biasa.
+// Reload mengompilasi seluruh file dulu (gagal = tidak ada yang berubah), lalu mengganti
+// target semua call site dan syncAll. Lakukan reload di antara pertarungan.
+//
+// Format file: satu formula per baris, "nama = ekspresi", komentar diawali '#'; nama harus
+// formula bawaan atau call site yang sudah didaftarkan lewat site().
+// Ekspresi: angka, + - * / % (bagi nol = 0), kurung, min(a,b), max(a,b), abs(a), rand(n)
+// (acak [0,n) dari RandomSource combat; n konstan harus positif, n hasil stat <= 0 memberi 0),
+// dan stat attacker.X / target.X dengan X salah satu attack, defense (nilai efektif), level,
+// health, maxHealth, mana, maxMana, experience. Hasil formula yang negatif dibaca sebagai 0.
+final class DamageFormulas {
+    static final MethodType TYPE = MethodType.methodType(int.class, Character.class, Character.class, RandomSource.class);
+    
+    static final String BASIC_ATTACK_KEY = "attack";
+    
+    // Formula bawaan, sama persis dengan perhitungan hardcoded sebelumnya
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+    
+    static {
+        DEFAULTS.put(BASIC_ATTACK_KEY, "attacker.attack + rand(10) - target.defense");
+        DEFAULTS.put("Power Strike", "50 + rand(20)");
+        DEFAULTS.put("Fireball", "40 + rand(25)");
+        DEFAULTS.put("Heal", "30 + rand(20)");
+        DEFAULTS.put("Precision Shot", "35 + rand(15)");
+    }
+    
+    private static final ConcurrentHashMap<String, MutableCallSite> SITES = new ConcurrentHashMap<>();
+    
+    static final MethodHandle BASIC_ATTACK = site(BASIC_ATTACK_KEY).dynamicInvoker();
+    static final MethodHandle POWER_STRIKE = site("Power Strike").dynamicInvoker();
+    static final MethodHandle FIREBALL = site("Fireball").dynamicInvoker();
+    static final MethodHandle HEAL = site("Heal").dynamicInvoker();
+    static final MethodHandle PRECISION_SHOT = site("Precision Shot").dynamicInvoker();
+    
+    private static volatile long loadedModified = Long.MIN_VALUE;
+    
+    private DamageFormulas() {}
+    
+    // Call site untuk formula dengan nama tertentu (skill custom juga bisa memakainya)
+    static MutableCallSite site(String key) {
+        return SITES.computeIfAbsent(key, k -> {
+            String expression = DEFAULTS.get(k);
+            MethodHandle target = expression != null ? FormulaCompiler.compile(expression)
+                    : MethodHandles.dropArguments(MethodHandles.constant(int.class, 0), 0, TYPE.parameterList());
+            return new MutableCallSite(target);
+        });
+    }
+    
+    // Menjalankan formula; Throwable dari invokeExact hanya bisa berupa RuntimeException/Error
+    // Hasil di-clamp ke 0 di sini, satu-satunya titik evaluasi, agar formula seperti
+    // "5 - target.defense" tidak berubah menjadi heal lewat takeDamage negatif
+    static int evaluate(MethodHandle formula, Character attacker, Character target, RandomSource random) {
+        try {
+            return Math.max(0, (int) formula.invokeExact(attacker, target, random));
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    public static void load(Path file) throws IOException {
+        load(Files.readAllLines(file, StandardCharsets.UTF_8));
+        loadedModified = Files.getLastModifiedTime(file).toMillis();
+    }
+    
+    // Formula yang tidak disebut di file kembali ke bawaan
+    public static void load(List<String> lines) {
+        Map<String, MethodHandle> compiled = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : DEFAULTS.entrySet()) {
+            compiled.put(entry.getKey(), null);
+        }
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            int separator = line.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": expected 'name = expression'");
+            }
+            String name = line.substring(0, separator).trim();
+            if (!DEFAULTS.containsKey(name) && !SITES.containsKey(name)) {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": unknown formula '" + name + "'");
+            }
+            try {
+                compiled.put(name, FormulaCompiler.compile(line.substring(separator + 1)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        
+        MutableCallSite[] changed = new MutableCallSite[compiled.size()];
+        int count = 0;
+        for (Map.Entry<String, MethodHandle> entry : compiled.entrySet()) {
+            MethodHandle target = entry.getValue();
+            if (target == null) {
+                target = FormulaCompiler.compile(DEFAULTS.get(entry.getKey()));
+            }
+            MutableCallSite site = site(entry.getKey());
+            site.setTarget(target);
+            changed[count++] = site;
+        }
+        MutableCallSite.syncAll(Arrays.copyOf(changed, count));
+    }
+    
+    // Reload jika file berubah sejak load terakhir; dipanggil di antara pertarungan
+    public static boolean reloadIfModified(Path file) throws IOException {
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        if (modified == loadedModified) return false;
+        load(file);
+        return true;
+    }
+    
+    public static void resetDefaults() {
+        load(List.of());
+        loadedModified = Long.MIN_VALUE;
+    }
+}
+
+// Compiler ekspresi formula menjadi rantai MethodHandle bertipe (attacker, target, random)int
+// Parser recursive descent; sub-ekspresi konstan dilipat saat kompilasi.
+final class FormulaCompiler {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodHandle RAND;
+    private static final Map<String, MethodHandle> STATS = new LinkedHashMap<>();
+    
+    static {
+        try {
+            RAND = LOOKUP.findStatic(FormulaCompiler.class, "rand", MethodType.methodType(int.class, RandomSource.class, int.class));
+            for (String stat : new String[] {"attack", "defense", "level", "health", "maxHealth", "mana", "maxMana", "experience"}) {
+                STATS.put(stat, LOOKUP.findStatic(FormulaCompiler.class, stat, MethodType.methodType(int.class, Character.class)));
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    private final String source;
+    private int position;
+    
+    private FormulaCompiler(String source) {
+        this.source = source;
+    }
+    
+    static MethodHandle compile(String expression) {
+        FormulaCompiler compiler = new FormulaCompiler(expression);
+        Node node = compiler.expression();
+        compiler.skipSpaces();
+        if (compiler.position < expression.length()) {
+            throw compiler.error("Unexpected '" + expression.charAt(compiler.position) + "'");
+        }
+        return node.handle();
+    }
+    
+    // Node ekspresi: konstanta (dilipat) atau handle bertipe DamageFormulas.TYPE
+    private static final class Node {
+        final MethodHandle handle;
+        final int constant;
+        
+        Node(MethodHandle handle, int constant) {
+            this.handle = handle;
+            this.constant = constant;
+        }
+        
+        boolean isConstant() { return handle == null; }
+        
+        MethodHandle handle() {
+            return handle != null ? handle
+                    : MethodHandles.dropArguments(MethodHandles.constant(int.class, constant), 0,
+                                                  DamageFormulas.TYPE.parameterList());
+        }
+    }
+    
+    private Node expression() {
+        Node left = term();
+        while (true) {
+            if (accept('+')) left = binary("add", left, term());
+            else if (accept('-')) left = binary("sub", left, term());
+            else return left;
+        }
+    }
+    
+    private Node term() {
+        Node left = unary();
+        while (true) {
+            if (accept('*')) left = binary("mul", left, unary());
+            else if (accept('/')) left = binary("div", left, unary());
+            else if (accept('%')) left = binary("mod", left, unary());
+            else return left;
+        }
+    }
+    
+    private Node unary() {
+        if (accept('-')) {
+            return unaryCall("neg", unary());
+        }
+        return primary();
+    }
+    
+    private Node primary() {
+        skipSpaces();
+        if (accept('(')) {
+            Node inner = expression();
+            expect(')');
+            return inner;
+        }
+        if (position < source.length() && java.lang.Character.isDigit(source.charAt(position))) {
+            int start = position;
+            while (position < source.length() && java.lang.Character.isDigit(source.charAt(position))) position++;
+            return new Node(null, Integer.parseInt(source.substring(start, position)));
+        }
+        
+        String name = identifier();
+        if (name.equals("attacker") || name.equals("target")) {
+            expect('.');
+            String stat = identifier();
+            MethodHandle getter = STATS.get(stat);
+            if (getter == null) throw error("Unknown stat '" + stat + "'");
+            // (Character)int -> (attacker, target, random)int
+            MethodHandle handle = name.equals("attacker")
+                    ? MethodHandles.dropArguments(getter, 1, Character.class, RandomSource.class)
+                    : MethodHandles.dropArguments(MethodHandles.dropArguments(getter, 0, Character.class), 2, RandomSource.class);
+            return new Node(handle, 0);
+        }
+        
+        expect('(');
+        Node first = expression();
+        switch (name) {
+            case "rand": {
+                expect(')');
+                if (first.isConstant() && first.constant <= 0) {
+                    throw error("rand bound must be positive, got " + first.constant);
+                }
+                // (random, bound)int dengan bound dari ekspresi -> (attacker, target, random)int
+                MethodHandle bounded = MethodHandles.collectArguments(RAND, 1, first.handle());
+                return new Node(MethodHandles.permuteArguments(bounded, DamageFormulas.TYPE, 2, 0, 1, 2), 0);
+            }
+            case "abs":
+                expect(')');
+                return unaryCall("abs", first);
+            case "min":
+            case "max": {
+                expect(',');
+                Node second = expression();
+                expect(')');
+                return binary(name, first, second);
+            }
+            default:
+                throw error("Unknown function '" + name + "'");
+        }
+    }
+    
+    private Node unaryCall(String op, Node operand) {
+        if (operand.isConstant()) {
+            return new Node(null, op.equals("neg") ? -operand.constant : Math.abs(operand.constant));
+        }
+        MethodHandle function = operation(op, 1);
+        return new Node(MethodHandles.filterReturnValue(operand.handle, function), 0);
+    }
+    
+    private Node binary(String op, Node left, Node right) {
+        MethodHandle function = operation(op, 2);
+        if (left.isConstant() && right.isConstant()) {
+            try {
+                return new Node(null, (int) function.invokeExact(left.constant, right.constant));
+            } catch (Throwable e) {
+                throw error(e.toString());
+            }
+        }
+        // (int,int)int -> (a,t,r, a,t,r)int -> (a,t,r)int; operand kiri dievaluasi lebih dulu
+        MethodHandle spread = MethodHandles.collectArguments(
+                MethodHandles.collectArguments(function, 1, right.handle()), 0, left.handle());
+        return new Node(MethodHandles.permuteArguments(spread, DamageFormulas.TYPE, 0, 1, 2, 0, 1, 2), 0);
+    }
+    
+    private MethodHandle operation(String name, int arity) {
+        MethodType type = arity == 1 ? MethodType.methodType(int.class, int.class)
+                                     : MethodType.methodType(int.class, int.class, int.class);
+        try {
+            return LOOKUP.findStatic(FormulaCompiler.class, name, type);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private String identifier() {
+        skipSpaces();
+        int start = position;
+        while (position < source.length() && java.lang.Character.isLetter(source.charAt(position))) position++;
+        if (start == position) {
+            throw error(position < source.length() ? "Unexpected '" + source.charAt(position) + "'" : "Unexpected end");
+        }
+        return source.substring(start, position);
+    }
+    
+    private boolean accept(char c) {
+        skipSpaces();
+        if (position < source.length() && source.charAt(position) == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+    
+    private void expect(char c) {
+        if (!accept(c)) throw error("Expected '" + c + "'");
+    }
+    
+    private void skipSpaces() {
+        while (position < source.length() && source.charAt(position) == ' ') position++;
+    }
+    
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at column " + (position + 1) + " in '" + source.trim() + "'");
+    }
+    
+    // Operasi dan stat yang dipanggil lewat MethodHandle
+    static int add(int a, int b) { return a + b; }
+    static int sub(int a, int b) { return a - b; }
+    static int mul(int a, int b) { return a * b; }
+    static int div(int a, int b) { return b == 0 ? 0 : a / b; }
+    static int mod(int a, int b) { return b == 0 ? 0 : a % b; }
+    static int min(int a, int b) { return Math.min(a, b); }
+    static int max(int a, int b) { return Math.max(a, b); }
+    static int neg(int a) { return -a; }
+    static int abs(int a) { return Math.abs(a); }
+    
+    // Bound dari stat bisa <= 0 saat runtime; hasilnya 0 alih-alih exception di tengah combat
+    static int rand(RandomSource random, int bound) { return bound <= 0 ? 0 : random.nextInt(bound); }
+    
+    // Stat karakter; target null (misalnya skill tanpa target) dibaca sebagai 0
+    static int attack(Character c) { return c == null ? 0 : c.getEffectiveAttack(); }
+    static int defense(Character c) { return c == null ? 0 : c.getEffectiveDefense(); }
+    static int level(Character c) { return c == null ? 0 : c.getLevel(); }
+    static int health(Character c) { return c == null ? 0 : c.getHealth(); }
+    static int maxHealth(Character c) { return c == null ? 0 : c.getMaxHealth(); }
+    static int mana(Character c) { return c == null ? 0 : c.getMana(); }
+    static int maxMana(Character c) { return c == null ? 0 : c.getMaxMana(); }
+    static int experience(Character c) { return c == null ? 0 : c.getExperience(); }
+}
+
+// Listener yang dipanggil saat dua party dipasangkan (di thread scheduler matchmaker)
+interface MatchListener {
+    void onMatch(Party first, Party second, int ratingGap);
+}
+
+// Matchmaking party berdasarkan rating (total level + win rate) dan komposisi class
+// Party hanya dipasangkan dengan party berukuran sama. Antrian diindeks per ukuran dalam
+// TreeMap bucket rating, sehingga satu keputusan cukup O(log bucket + kandidat).
+// Jendela rating yang diterima melebar seiring waktu tunggu; setelah maxWait party menerima
+// lawan berapa pun rating-nya agar waktu tunggu tetap terbatas.
+// Semua struktur indeks hanya disentuh thread scheduler; enqueue dari thread lain lewat
+// antrian lock-free dan cancel lewat flag volatile di ticket.
+class Matchmaker implements AutoCloseable {
+    private static final int BUCKET_WIDTH = 50;
+    private static final int MAX_CANDIDATES = 64;
+    private static final int COMPOSITION_WEIGHT = 25; // penalti rating per selisih satu anggota class
+    private static final int WAIT_SAMPLES = 1 << 16;
+    private static final double RESULT_DECAY = 0.9; // bobot hasil lama per pertarungan baru (~10 terakhir)
+    
+    // Party dalam antrian
+    static final class Ticket {
+        final Party party;
+        final int size;
+        final int rating;
+        final int[] composition;
+        final long enqueuedAt;
+        volatile boolean cancelled;
+        boolean matched;
+        
+        Ticket(Party party, int rating, int[] composition, long enqueuedAt) {
+            this.party = party;
+            this.size = party.getMembers().size();
+            this.rating = rating;
+            this.composition = composition;
+            this.enqueuedAt = enqueuedAt;
+        }
+        
+        public void cancel() { cancelled = true; }
+        public int getRating() { return rating; }
+        public Party getParty() { return party; }
+        
+        boolean isDone() { return matched || cancelled; }
+    }
+    
+    private final MatchListener listener;
+    private final int baseWindow;
+    private final int widenPerSecond;
+    private final long maxWaitNanos;
+    
+    private final ConcurrentLinkedQueue<Ticket> intake = new ConcurrentLinkedQueue<>();
+    private final ArrayDeque<Ticket> waiting = new ArrayDeque<>();
+    private final Map<Integer, TreeMap<Integer, ArrayDeque<Ticket>>> index = new HashMap<>();
+    private final ConcurrentHashMap<String, double[]> records = new ConcurrentHashMap<>(); // {wins, games}, decayed
+    
+    private final long[] waits = new long[WAIT_SAMPLES];
+    private long waitCount;
+    private final AtomicLong matches = new AtomicLong();
+    private ScheduledExecutorService scheduler;
+    
+    public Matchmaker(MatchListener listener) {
+        this(listener, 50, 100, 30_000_000_000L);
+    }
+    
+    public Matchmaker(MatchListener listener, int baseWindow, int widenPerSecond, long maxWaitNanos) {
+        this.listener = listener;
+        this.baseWindow = baseWindow;
+        this.widenPerSecond = widenPerSecond;
+        this.maxWaitNanos = maxWaitNanos;
+    }
+    
+    // Rating: 100 per level anggota, +-200 per anggota dari win rate terkini (dihaluskan Laplace)
+    public int rating(Party party) {
+        int total = 0;
+        for (Character member : party.getMembers()) {
+            total += member.getLevel() * 100;
+        }
+        double[] record = records.get(party.getPartyName());
+        double winRate = record == null ? 0.5 : (record[0] + 1.0) / (record[1] + 2.0);
+        return total + (int) Math.round((winRate - 0.5) * 400 * party.getMembers().size());
+    }
+    
+    // Jumlah anggota per class (class di luar CharacterClasses dihitung di slot terakhir)
+    static int[] composition(Party party) {
+        int[] counts = new int[CharacterClasses.NAMES.length + 1];
+        for (Character member : party.getMembers()) {
+            int slot = CharacterClasses.NAMES.length;
+            for (int i = 0; i < CharacterClasses.NAMES.length; i++) {
+                if (CharacterClasses.NAMES[i].equals(member.getCharacterClass())) {
+                    slot = i;
+                    break;
+                }
+            }
+            counts[slot]++;
+        }
+        return counts;
+    }
+    
+    public Ticket enqueue(Party party) {
+        if (party.getMembers().isEmpty()) {
+            throw new IllegalArgumentException("Cannot queue an empty party: " + party.getPartyName());
+        }
+        Ticket ticket = new Ticket(party, rating(party), composition(party), System.nanoTime());
+        intake.add(ticket);
+        return ticket;
+    }
+    
+    // Hasil pertarungan untuk win rate; rating baru dipakai saat party mengantri lagi
+    // Hasil lama meluruh eksponensial sehingga win rate mencerminkan performa terkini
+    public void recordResult(Party winner, Party loser) {
+        records.compute(winner.getPartyName(), (k, r) -> decay(r, 1));
+        records.compute(loser.getPartyName(), (k, r) -> decay(r, 0));
+    }
+    
+    private static double[] decay(double[] record, int won) {
+        if (record == null) return new double[] {won, 1};
+        return new double[] {record[0] * RESULT_DECAY + won, record[1] * RESULT_DECAY + 1};
+    }
+    
+    // Menjalankan matching terus-menerus di thread scheduler khusus
+    public synchronized void start(long periodMillis) {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "matchmaker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> matchOnce(System.nanoTime()), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
+                    scheduler.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                scheduler.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            scheduler = null;
+        }
+    }
+    
+    // Satu putaran matching; party yang paling lama menunggu dilayani lebih dulu
+    // Hanya boleh dipanggil dari satu thread (scheduler, atau pemanggil langsung tanpa start)
+    int matchOnce(long now) {
+        for (Ticket ticket; (ticket = intake.poll()) != null; ) {
+            waiting.add(ticket);
+            index.computeIfAbsent(ticket.size, k -> new TreeMap<>())
+                 .computeIfAbsent(Math.floorDiv(ticket.rating, BUCKET_WIDTH), k -> new ArrayDeque<>())
+                 .add(ticket);
+        }
+        
+        int made = 0;
+        for (Iterator<Ticket> it = waiting.iterator(); it.hasNext(); ) {
+            Ticket ticket = it.next();
+            if (!ticket.isDone()) {
+                Ticket partner = findPartner(ticket, now);
+                if (partner != null) {
+                    ticket.matched = true;
+                    partner.matched = true;
+                    recordWait(now - ticket.enqueuedAt);
+                    recordWait(now - partner.enqueuedAt);
+                    matches.incrementAndGet();
+                    made++;
+                    notifyMatch(ticket, partner);
+                }
+            }
+            if (ticket.isDone()) {
+                it.remove();
+            }
+        }
+        return made;
+    }
+    
+    // Exception dari listener tidak boleh lolos: scheduleWithFixedDelay akan membatalkan task
+    private void notifyMatch(Ticket first, Ticket second) {
+        try {
+            listener.onMatch(first.party, second.party, Math.abs(first.rating - second.rating));
+        } catch (RuntimeException e) {
+            System.err.println("Match listener failed: " + e);
+        }
+    }
+    
+    private int window(Ticket ticket, long now) {
+        long waited = now - ticket.enqueuedAt;
+        if (waited >= maxWaitNanos) return Integer.MAX_VALUE / 2;
+        return (int) Math.min(Integer.MAX_VALUE / 2, baseWindow + widenPerSecond * waited / 1_000_000_000L);
+    }
+    
+    // Kandidat terbaik dalam jendela rating: selisih rating + penalti beda komposisi
+    // Bucket dipindai keluar dari bucket party itu sendiri, selalu ke sisi dengan selisih
+    // rating minimum terkecil, dan berhenti saat bucket berikutnya tidak mungkin lebih baik
+    private Ticket findPartner(Ticket ticket, long now) {
+        TreeMap<Integer, ArrayDeque<Ticket>> buckets = index.get(ticket.size);
+        int window = window(ticket, now);
+        int low = Math.floorDiv((int) Math.max(Integer.MIN_VALUE, (long) ticket.rating - window), BUCKET_WIDTH);
+        int high = Math.floorDiv((int) Math.min(Integer.MAX_VALUE, (long) ticket.rating + window), BUCKET_WIDTH);
+        int home = Math.floorDiv(ticket.rating, BUCKET_WIDTH);
+        
+        Ticket best = null;
+        long bestScore = Long.MAX_VALUE;
+        int scanned = 0;
+        Map.Entry<Integer, ArrayDeque<Ticket>> up = within(buckets.ceilingEntry(home), low, high);
+        Map.Entry<Integer, ArrayDeque<Ticket>> down = within(buckets.lowerEntry(home), low, high);
+        while ((up != null || down != null) && scanned < MAX_CANDIDATES) {
+            long upGap = up == null ? Long.MAX_VALUE
+                    : Math.max(0, (long) up.getKey() * BUCKET_WIDTH - ticket.rating);
+            long downGap = down == null ? Long.MAX_VALUE
+                    : Math.max(0, ticket.rating - ((long) down.getKey() * BUCKET_WIDTH + BUCKET_WIDTH - 1));
+            if (Math.min(upGap, downGap) >= bestScore) break;
+            
+            Map.Entry<Integer, ArrayDeque<Ticket>> entry;
+            if (upGap <= downGap) {
+                entry = up;
+                up = within(buckets.higherEntry(up.getKey()), low, high);
+            } else {
+                entry = down;
+                down = within(buckets.lowerEntry(down.getKey()), low, high);
+            }
+            ArrayDeque<Ticket> bucket = entry.getValue();
+            while (!bucket.isEmpty() && bucket.peekFirst().isDone()) {
+                bucket.pollFirst();
+            }
+            if (bucket.isEmpty()) {
+                buckets.remove(entry.getKey());
+                continue;
+            }
+            for (Ticket candidate : bucket) {
+                if (candidate == ticket || candidate.isDone()) continue;
+                int gap = Math.abs(candidate.rating - ticket.rating);
+                if (gap > Math.max(window, window(candidate, now))) continue;
+                long score = gap + (long) COMPOSITION_WEIGHT * compositionDistance(ticket, candidate);
+                if (score < bestScore) {
+                    bestScore = score;
+                    best = candidate;
+                }
+                if (++scanned == MAX_CANDIDATES) break;
+            }
+        }
+        return best;
+    }
+    
+    private static Map.Entry<Integer, ArrayDeque<Ticket>> within(Map.Entry<Integer, ArrayDeque<Ticket>> entry,
+                                                              int low, int high) {
+        return entry != null && entry.getKey() >= low && entry.getKey() <= high ? entry : null;
+    }
+    
+    private static int compositionDistance(Ticket a, Ticket b) {
+        int distance = 0;
+        for (int i = 0; i < a.composition.length; i++) {
+            distance += Math.abs(a.composition[i] - b.composition[i]);
+        }
+        return distance / 2;
+    }
+    
+    private synchronized void recordWait(long nanos) {
+        waits[(int) (waitCount++ & (WAIT_SAMPLES - 1))] = nanos;
+    }
+    
+    // Persentil waktu tunggu (ms) dari sampai 65536 match terakhir
+    public synchronized double waitPercentile(double percentile) {
+        int count = (int) Math.min(waitCount, WAIT_SAMPLES);
+        if (count == 0) return 0;
+        long[] sorted = Arrays.copyOf(waits, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.min(count - 1, Math.ceil(percentile / 100.0 * count) - 1);
+        return sorted[Math.max(0, rank)] / 1e6;
+    }
+    
+    public long getMatchCount() { return matches.get(); }
+    public int getQueuedCount() { return waiting.size() + intake.size(); }
+    
+    // Simulasi arus antrian: 500 party per 10 ms (waktu simulasi), dicocokkan setiap tick
+    public static void main(String[] args) {
+        int parties = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        GameOutput.setEnabled(false);
+        SplittableRandom random = new SplittableRandom(47);
+        
+        List<Party> pool = new ArrayList<>(parties);
+        for (int i = 0; i < parties; i++) {
+            Party party = new Party("Party-" + i);
+            int size = 2 + random.nextInt(3);
+            for (int m = 0; m < size; m++) {
+                Character member = CharacterClasses.create((byte) random.nextInt(3), "Hero-" + i + "-" + m);
+                member.level = 1 + random.nextInt(50);
+                party.addMember(member);
+            }
+            pool.add(party);
+        }
+        
+        long[] gapTotal = new long[1];
+        Matchmaker matchmaker = new Matchmaker((a, b, gap) -> gapTotal[0] += gap);
+        long start = System.nanoTime();
+        long cpu = 0;
+        int next = 0;
+        long now = start;
+        while (next < parties || matchmaker.getQueuedCount() > 1 && now - start < 120_000_000_000L) {
+            for (int i = 0; i < 500 && next < parties; i++) {
+                Ticket ticket = new Ticket(pool.get(next), matchmaker.rating(pool.get(next)),
+                                           composition(pool.get(next)), now);
+                matchmaker.intake.add(ticket);
+                next++;
+            }
+            long t0 = System.nanoTime();
+            matchmaker.matchOnce(now);
+            cpu += System.nanoTime() - t0;
+            now += 10_000_000L;
+        }
+        
+        long made = matchmaker.getMatchCount();
+        System.out.println(String.format("%d matches in %.1f ms CPU (%.0f decisions/s), avg rating gap %.1f, unmatched %d",
+                made, cpu / 1e6, made * 1e9 / cpu, (double) gapTotal[0] / Math.max(1, made), matchmaker.getQueuedCount()));
+        System.out.println(String.format("Wait (simulated): p50 %.0f ms, p99 %.0f ms, max %.0f ms",
+                matchmaker.waitPercentile(50), matchmaker.waitPercentile(99), matchmaker.waitPercentile(100)));
+    }
+}
+
+// Histogram dengan bucket logaritmik basis 2: bucket i berisi nilai [2^(i-1), 2^i)
+// Setiap bucket adalah LongAdder (counter ter-stripe) sehingga perekaman dari banyak
+// thread tidak saling berebut cache line; persentil akurat sampai faktor 2.
+class LogHistogram {
+    private static final int BUCKETS = 64;
+    
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+    
+    public LogHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+    
+    public void record(long value) {
+        value = Math.max(0, value);
+        buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value))].increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+    
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+    
+    public long getSum() { return sum.sum(); }
+    public long getMax() { return max.get(); }
+    
+    // Batas atas bucket yang memuat persentil tersebut (dibatasi nilai maksimum)
+    public long percentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(percentile / 100.0 * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long upper = i == 0 ? 0 : i >= 63 ? Long.MAX_VALUE : (1L << i) - 1;
+                return Math.min(upper, getMax());
+            }
+        }
+        return getMax();
+    }
     
-    @Override
-    public void resetCooldown() { onCooldown = false; }
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        sum.reset();
+        max.reset();
+    }
 }
 
-class DefensiveStance implements Skill {
-    private boolean onCooldown = false;
+// Metrik combat: counter ter-stripe dan histogram latency/damage
+// Mati secara default; saat mati setiap titik instrumentasi hanya membaca satu flag volatile.
+// Bisa dipantau lewat JMX (rpg:type=CombatMetrics) atau dump periodik ke PrintStream.
+final class CombatMetrics {
+    static final String OBJECT_NAME = "rpg:type=CombatMetrics";
     
-    @Override
-    public int useSkill(Character target) {
-        // Self-buff skill
-        if (target != null) {
-            // Temporary defense boost (simplified)
-            System.out.println(target.getName() + " enters defensive stance, defense increased");
-        }
-        onCooldown = true;
-        return 0;
-    }
+    private static volatile boolean enabled = false;
     
-    @Override
-    public String getSkillName() { return "Defensive Stance"; }
+    private static final LongAdder ATTACKS = new LongAdder();
+    private static final LongAdder SKILL_CASTS = new LongAdder();
+    private static final LongAdder SKILL_FAILURES = new LongAdder();
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder DEATHS = new LongAdder();
+    private static final LongAdder HEALS = new LongAdder();
+    private static final LongAdder LEVEL_UPS = new LongAdder();
     
-    @Override
-    public String getDescription() { return "Increases defense temporarily"; }
+    private static final LogHistogram ATTACK_LATENCY = new LogHistogram();
+    private static final LogHistogram SKILL_LATENCY = new LogHistogram();
+    private static final LogHistogram DAMAGE = new LogHistogram();
+    private static final LogHistogram HEALING = new LogHistogram();
     
-    @Override
-    public int getManaCost() { return 15; }
+    private static ScheduledExecutorService dumper;
     
-    @Override
-    public boolean isOnCooldown() { return onCooldown; }
+    private CombatMetrics() {}
     
-    @Override
-    public void resetCooldown() { onCooldown = false; }
-}
-
-// Implementasi skill untuk Mage
-class Fireball implements Skill {
-    private boolean onCooldown = false;
+    public static boolean isEnabled() { return enabled; }
     
-    @Override
-    public int useSkill(Character target) {
-        Random rand = new Random();
-        int damage = 40 + rand.nextInt(25);
-        if (target != null) {
-            target.takeDamage(damage);
-            System.out.println("Fireball burns " + target.getName());
-        }
-        onCooldown = true;
-        return damage;
+    public static void setEnabled(boolean value) { enabled = value; }
+    
+    // Titik instrumentasi (dipanggil hanya jika isEnabled())
+    static void attack(long latencyNanos) {
+        ATTACKS.increment();
+        ATTACK_LATENCY.record(latencyNanos);
     }
     
-    @Override
-    public String getSkillName() { return "Fireball"; }
+    static void skillCast(long latencyNanos) {
+        SKILL_CASTS.increment();
+        SKILL_LATENCY.record(latencyNanos);
+    }
     
-    @Override
-    public String getDescription() { return "Launches a burning fireball at the enemy"; }
+    static void skillFailed() { SKILL_FAILURES.increment(); }
     
-    @Override
-    public int getManaCost() { return 25; }
+    static void damageTaken(int damage) {
+        HITS.increment();
+        DAMAGE.record(damage);
+    }
     
-    @Override
-    public boolean isOnCooldown() { return onCooldown; }
+    static void death() { DEATHS.increment(); }
     
-    @Override
-    public void resetCooldown() { onCooldown = false; }
-}
-
-class Heal implements Skill {
-    private boolean onCooldown = false;
+    static void heal(int amount) {
+        HEALS.increment();
+        HEALING.record(amount);
+    }
     
-    @Override
-    public int useSkill(Character target) {
-        Random rand = new Random();
-        int healing = 30 + rand.nextInt(20);
-        if (target != null) {
-            target.heal(healing);
+    static void levelUp() { LEVEL_UPS.increment(); }
+    static void levelUp(int levels) { LEVEL_UPS.add(levels); }
+    
+    public static void reset() {
+        for (LongAdder counter : new LongAdder[] {ATTACKS, SKILL_CASTS, SKILL_FAILURES, HITS, DEATHS, HEALS, LEVEL_UPS}) {
+            counter.reset();
+        }
+        for (LogHistogram histogram : new LogHistogram[] {ATTACK_LATENCY, SKILL_LATENCY, DAMAGE, HEALING}) {
+            histogram.reset();
         }
-        onCooldown = true;
-        return healing;
     }
     
-    @Override
-    public String getSkillName() { return "Heal"; }
+    // Nilai metrik berdasarkan nama atribut (urutan tetap, dipakai JMX dan dump)
+    static Map<String, Long> values() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        values.put("Attacks", ATTACKS.sum());
+        values.put("SkillCasts", SKILL_CASTS.sum());
+        values.put("SkillFailures", SKILL_FAILURES.sum());
+        values.put("Hits", HITS.sum());
+        values.put("Deaths", DEATHS.sum());
+        values.put("Heals", HEALS.sum());
+        values.put("LevelUps", LEVEL_UPS.sum());
+        values.put("DamageTaken", DAMAGE.getSum());
+        values.put("HealingDone", HEALING.getSum());
+        values.put("AttackLatencyP50Nanos", ATTACK_LATENCY.percentile(50));
+        values.put("AttackLatencyP99Nanos", ATTACK_LATENCY.percentile(99));
+        values.put("SkillLatencyP50Nanos", SKILL_LATENCY.percentile(50));
+        values.put("SkillLatencyP99Nanos", SKILL_LATENCY.percentile(99));
+        values.put("DamageP50", DAMAGE.percentile(50));
+        values.put("DamageP99", DAMAGE.percentile(99));
+        values.put("DamageMax", DAMAGE.getMax());
+        return values;
+    }
     
-    @Override
-    public String getDescription() { return "Restores health to target"; }
+    public static String snapshot() {
+        StringBuilder line = new StringBuilder("[metrics]");
+        for (Map.Entry<String, Long> entry : values().entrySet()) {
+            line.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return line.toString();
+    }
     
-    @Override
-    public int getManaCost() { return 20; }
+    // Mendaftarkan MBean ke platform MBeanServer (idempotent)
+    public static void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new CombatMetricsMBean(), name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register combat metrics MBean", e);
+        }
+    }
     
-    @Override
-    public boolean isOnCooldown() { return onCooldown; }
+    // Dump snapshot periodik beserta laju per detik sejak dump sebelumnya
+    public static synchronized void startDump(PrintStream out, long periodSeconds) {
+        if (dumper != null) return;
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "combat-metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long[] previous = {ATTACKS.sum(), SKILL_CASTS.sum(), DEATHS.sum()};
+        dumper.scheduleAtFixedRate(() -> {
+            long attacks = ATTACKS.sum();
+            long skills = SKILL_CASTS.sum();
+            long deaths = DEATHS.sum();
+            out.println(snapshot() + String.format(" rate[attacks/s=%d skills/s=%d deaths/s=%d]",
+                    (attacks - previous[0]) / periodSeconds, (skills - previous[1]) / periodSeconds,
+                    (deaths - previous[2]) / periodSeconds));
+            previous[0] = attacks;
+            previous[1] = skills;
+            previous[2] = deaths;
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
     
-    @Override
-    public void resetCooldown() { onCooldown = false; }
+    public static synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+    }
 }
 
-// Skill untuk Archer
-class PrecisionShot implements Skill {
-    private boolean onCooldown = false;
-    
+// MBean dinamis untuk CombatMetrics
+// Memakai DynamicMBean karena interface MXBean harus public, sedangkan file ini hanya
+// boleh punya satu class public; atribut dibaca dari CombatMetrics.values()
+class CombatMetricsMBean implements DynamicMBean {
     @Override
-    public int useSkill(Character target) {
-        // Always hits, ignores some defense
-        int damage = 35 + new Random().nextInt(15);
-        if (target != null) {
-            target.takeDamage(damage);
-            System.out.println("Precision shot hits " + target.getName() + " perfectly");
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        if (attribute.equals("Enabled")) {
+            return CombatMetrics.isEnabled();
         }
-        onCooldown = true;
-        return damage;
+        Long value = CombatMetrics.values().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
     }
     
     @Override
-    public String getSkillName() { return "Precision Shot"; }
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException, InvalidAttributeValueException {
+        if (!attribute.getName().equals("Enabled")) {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+        if (!(attribute.getValue() instanceof Boolean)) {
+            throw new InvalidAttributeValueException("Enabled must be a boolean");
+        }
+        CombatMetrics.setEnabled((Boolean) attribute.getValue());
+    }
     
     @Override
-    public String getDescription() { return "A precise shot that never misses"; }
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String name : attributes) {
+            try {
+                list.add(new Attribute(name, getAttribute(name)));
+            } catch (AttributeNotFoundException e) {
+                // Atribut yang tidak dikenal dilewati sesuai kontrak DynamicMBean
+            }
+        }
+        return list;
+    }
     
     @Override
-    public int getManaCost() { return 18; }
+    public AttributeList setAttributes(AttributeList attributes) {
+        AttributeList updated = new AttributeList();
+        for (Attribute attribute : attributes.asList()) {
+            try {
+                setAttribute(attribute);
+                updated.add(attribute);
+            } catch (AttributeNotFoundException | InvalidAttributeValueException e) {
+                // Atribut yang gagal diubah tidak dikembalikan
+            }
+        }
+        return updated;
+    }
     
     @Override
-    public boolean isOnCooldown() { return onCooldown; }
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if (actionName.equals("reset") && (params == null || params.length == 0)) {
+            CombatMetrics.reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
     
     @Override
-    public void resetCooldown() { onCooldown = false; }
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        attributes.add(new MBeanAttributeInfo("Enabled", "boolean", "Whether combat metrics are recorded", true, true, true));
+        for (String name : CombatMetrics.values().keySet()) {
+            attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+        }
+        MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Reset all counters and histograms",
+                new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+        return new MBeanInfo(getClass().getName(), "Combat metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[] {reset}, null);
+    }
 }
 
-// Class Warrior - mewarisi Character
-class Warrior extends Character {
-    
-    public Warrior(String name) {
-        super(name, 120, 50, 25, 15); // High health, low mana, high attack
-        
-        // Add warrior-specific skills
-        addSkill(new PowerStrike());
-        addSkill(new DefensiveStance());
-    }
+// Benchmark sederhana untuk hot path combat (tanpa dependensi eksternal)
+// Mengikuti pola PrayerScheduleBenchmark: setiap skenario dijalankan dengan fase warmup
+// lalu fase pengukuran, melaporkan throughput (ops/detik) dan alokasi memori per operasi.
+// Output konsol dan GameOutput ditekan selama pengukuran. Skenario ".mt" dijalankan oleh
+// beberapa thread sekaligus (state per thread) untuk mengukur biaya alokasi Random per
+// panggilan dan perebutan role LegendaryKnight di RoleRegistry.
+// Jalankan: java -cp <output> RPGCombatBenchmark [jumlahThread]
+class RPGCombatBenchmark {
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long MEASURE_NANOS = 2_000_000_000L;
     
-    @Override
-    public void useSpecialAbility(Character target) {
-        System.out.println(this.name + " uses Berserker Rage!");
-        this.attack += 10;
-        this.defense -= 5;
-        System.out.println("Attack increased, defense decreased");
-    }
+    // Mencegah JIT membuang hasil skenario; hanya ditulis thread utama. Setiap thread
+    // pengukur menjumlahkan hasilnya ke sink lokal yang digabung ke sini setelah join,
+    // sehingga skenario .mt tidak berebut satu field bersama
+    private static long blackhole;
     
-    @Override
-    public String getCharacterClass() {
-        return "Warrior";
+    interface Scenario {
+        long run(int iteration);
     }
     
-    @Override
-    public void levelUp() {
-        this.level++;
-        this.maxHealth += 20;
-        this.health = this.maxHealth;
-        this.maxMana += 5;
-        this.mana = this.maxMana;
-        this.attack += 5;
-        this.defense += 3;
-        this.experience = 0;
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0])
+                : Math.max(2, Runtime.getRuntime().availableProcessors());
         
-        System.out.println(this.name + " leveled up to level " + this.level + "!");
-        System.out.println("Health and attack increased significantly");
+        PrintStream console = System.out;
+        boolean output = GameOutput.isEnabled();
+        GameOutput.setEnabled(false);
+        try {
+            console.println("Benchmark RPG combat (" + threads + " thread untuk skenario .mt)");
+            console.println(String.format("%-32s %15s %15s", "Skenario", "ops/detik", "byte/op"));
+            
+            report(console, "basicAttack", basicAttack());
+            for (int id = 0; id < SkillRegistry.size(); id++) {
+                report(console, "useSkill." + SkillRegistry.get(id).getClass().getSimpleName(), useSkill(id));
+            }
+            Warrior tank = new Warrior("Tank");
+            report(console, "takeDamage+heal", i -> {
+                tank.takeDamage(10);
+                tank.heal(10);
+                return tank.getHealth();
+            });
+            Character[] learner = {new Warrior("Learner")};
+            report(console, "gainExperience", i -> {
+                if (i % 256 == 0) learner[0] = new Warrior("Learner");
+                learner[0].gainExperience(150);
+                return learner[0].getLevel();
+            });
+            report(console, "levelUp", i -> {
+                if (i % 256 == 0) learner[0] = new Mage("Learner");
+                learner[0].levelUp();
+                return learner[0].getLevel();
+            });
+            report(console, "battle.duel", battle(false));
+            report(console, "battle.party", battle(true));
+            
+            Party large = new Party("Horde");
+            for (int j = 0; j < 1000; j++) {
+                large.addMember(j % 2 == 0 ? new Warrior("W" + j) : new Archer("A" + j));
+            }
+            report(console, "party.iterate(1000)", i -> {
+                long health = 0;
+                for (Character member : large.getMembers()) {
+                    if (member.isAlive()) health += member.getHealth();
+                }
+                return health;
+            });
+            report(console, "random.newPerCall", i -> new java.util.Random().nextInt(100));
+            report(console, "random.threadLocal", i -> RandomSource.threadLocal().nextInt(100));
+            report(console, "knight.exists", i -> LegendaryKnight.exists() ? 1 : 0);
+            
+            reportParallel(console, "basicAttack.mt", threads, RPGCombatBenchmark::basicAttack);
+            reportParallel(console, "battle.duel.mt", threads, () -> battle(false));
+            reportParallel(console, "random.newPerCall.mt", threads,
+                    () -> i -> new java.util.Random().nextInt(100));
+            reportParallel(console, "random.threadLocal.mt", threads,
+                    () -> i -> RandomSource.threadLocal().nextInt(100));
+            reportParallel(console, "knight.exists.mt", threads,
+                    () -> i -> LegendaryKnight.exists() ? 1 : 0);
+            // Semua thread memperebutkan satu role: claim lalu release jika menang
+            RoleRegistry registry = new RoleRegistry();
+            reportParallel(console, "knight.claimRelease.mt", threads, () -> {
+                Character holder = new Warrior("Claimant");
+                return i -> {
+                    if (registry.claim(LegendaryKnight.ROLE, holder)) {
+                        registry.release(LegendaryKnight.ROLE, holder);
+                        return 1;
+                    }
+                    return 0;
+                };
+            });
+        } finally {
+            GameOutput.setEnabled(output);
+        }
     }
-}
-
-// Class Mage - mewarisi Character
-class Mage extends Character {
     
-    public Mage(String name) {
-        super(name, 80, 100, 15, 8); // Low health, high mana, moderate attack
-        
-        // Add mage-specific skills
-        addSkill(new Fireball());
-        addSkill(new Heal());
+    private static Scenario basicAttack() {
+        Warrior attacker = new Warrior("Attacker");
+        Character[] target = {new Mage("Target")};
+        return i -> {
+            if (!target[0].isAlive()) target[0] = new Mage("Target");
+            return attacker.basicAttack(target[0]);
+        };
     }
     
-    @Override
-    public void useSpecialAbility(Character target) {
-        System.out.println(this.name + " casts Mana Shield!");
-        System.out.println("Next attack will consume mana instead of health");
-        // Implementation would involve temporary status effect
+    // Caster hanya memiliki satu skill; cooldown dan mana dipulihkan setiap iterasi,
+    // dan engine status effect dimajukan agar buff tidak menumpuk tanpa batas
+    private static Scenario useSkill(int skillId) {
+        StatusEffectEngine effects = new StatusEffectEngine();
+        Mage caster = new Mage("Caster");
+        caster.clearSkills();
+        caster.addSkill(skillId);
+        caster.setStatusEffectEngine(effects);
+        int cost = SkillRegistry.get(skillId).getManaCost();
+        Character[] target = {new Warrior("Target")};
+        target[0].setStatusEffectEngine(effects);
+        return i -> {
+            if (!target[0].isAlive()) {
+                target[0] = new Warrior("Target");
+                target[0].setStatusEffectEngine(effects);
+            }
+            effects.advance();
+            caster.resetCooldown(0);
+            caster.restoreMana(cost);
+            return caster.useSkill(0, target[0]);
+        };
     }
     
-    @Override
-    public String getCharacterClass() {
-        return "Mage";
+    // Satu pertarungan penuh per operasi, memakai loop yang sama dengan BattleSimulator
+    private static Scenario battle(boolean parties) {
+        BattleSimulator simulator = BattleSimulator.duel(() -> new Warrior("Warrior"), () -> new Mage("Mage"));
+        BattleStats stats = new BattleStats();
+        CooldownWheel wheel = new CooldownWheel();
+        StatusEffectEngine effects = new StatusEffectEngine();
+        RandomSource random = RandomSource.seeded(42);
+        return i -> {
+            wheel.reset();
+            effects.reset();
+            Party a = new Party("A");
+            Party b = new Party("B");
+            a.addMember(new Warrior("Thorin"));
+            b.addMember(new Mage("Gandalf"));
+            if (parties) {
+                a.addMember(new Mage("Merlin"));
+                a.addMember(new Archer("Legolas"));
+                b.addMember(LegendaryKnight.createDetached("Arthur"));
+                b.addMember(new Archer("Robin"));
+            }
+            simulator.fight(a, b, stats, random, wheel, effects);
+            return stats.totalRounds;
+        };
     }
     
-    @Override
-    public void levelUp() {
-        this.level++;
-        this.maxHealth += 10;
-        this.health = this.maxHealth;
-        this.maxMana += 20;
-        this.mana = this.maxMana;
-        this.attack += 3;
-        this.defense += 2;
-        this.experience = 0;
-        
-        System.out.println(this.name + " leveled up to level " + this.level + "!");
-        System.out.println("Mana and magical power increased significantly");
+    private static void report(PrintStream console, String name, Scenario scenario) {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            blackhole += measure(scenario, WARMUP_NANOS)[3];
+            long[] result = measure(scenario, MEASURE_NANOS);
+            blackhole += result[3];
+            print(console, name, result);
+        } finally {
+            System.setOut(console);
+        }
     }
-}
-
-// Class Archer - mewarisi Character
-class Archer extends Character {
     
-    public Archer(String name) {
-        super(name, 90, 70, 20, 10); // Balanced stats with focus on precision
-        
-        // Add archer-specific skills
-        addSkill(new PrecisionShot());
+    // Setiap thread membuat scenario sendiri lalu diukur bersamaan; ops dan byte dijumlahkan
+    private static void reportParallel(PrintStream console, String name, int threads,
+                                       Supplier<Scenario> factory) throws InterruptedException {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            long[][] results = new long[threads][];
+            CountDownLatch ready = new CountDownLatch(threads);
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int index = t;
+                workers[t] = new Thread(() -> {
+                    Scenario scenario = factory.get();
+                    long warmup = measure(scenario, WARMUP_NANOS)[3];
+                    ready.countDown();
+                    try {
+                        ready.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    long[] result = measure(scenario, MEASURE_NANOS);
+                    result[3] += warmup;
+                    results[index] = result;
+                }, "benchmark-" + t);
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long[] total = new long[3];
+            for (long[] result : results) {
+                total[0] += result[0];
+                total[1] = Math.max(total[1], result[1]);
+                total[2] = total[2] < 0 || result[2] < 0 ? -1 : total[2] + result[2];
+                blackhole += result[3];
+            }
+            print(console, name, total);
+        } finally {
+            System.setOut(console);
+        }
     }
     
-    @Override
-    public void useSpecialAbility(Character target) {
-        System.out.println(this.name + " activates Eagle Eye!");
-        System.out.println("Next few attacks will have increased accuracy and critical chance");
+    private static void print(PrintStream console, String name, long[] result) {
+        double opsPerSecond = result[0] * 1e9 / result[1];
+        long bytesPerOp = result[2] < 0 ? -1 : result[2] / Math.max(1, result[0]);
+        console.println(String.format("%-32s %15.0f %15d", name, opsPerSecond, bytesPerOp));
     }
     
-    @Override
-    public String getCharacterClass() {
-        return "Archer";
+    // Mengembalikan {jumlah operasi, durasi nano, byte teralokasi (-1 jika tidak didukung), sink}
+    private static long[] measure(Scenario scenario, long durationNanos) {
+        long startBytes = allocatedBytes();
+        long start = System.nanoTime();
+        long end = start;
+        long ops = 0;
+        long sink = 0;
+        while (end - start < durationNanos) {
+            for (int i = 0; i < 1000; i++) {
+                sink += scenario.run((int) ops++);
+            }
+            end = System.nanoTime();
+        }
+        long bytes = startBytes < 0 ? -1 : allocatedBytes() - startBytes;
+        return new long[] {ops, end - start, bytes, sink};
     }
     
-    @Override
-    public void levelUp() {
-        this.level++;
-        this.maxHealth += 15;
-        this.health = this.maxHealth;
-        this.maxMana += 10;
-        this.mana = this.maxMana;
-        this.attack += 4;
-        this.defense += 2;
-        this.experience = 0;
-        
-        System.out.println(this.name + " leveled up to level " + this.level + "!");
-        System.out.println("Agility and precision increased");
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes();
+        }
+        return -1;
     }
 }
 
-// Singleton pattern untuk role eksklusif (menggantikan sealed class)
-// Hanya boleh ada satu LegendaryKnight dalam game
-class LegendaryKnight extends Character {
-    private static LegendaryKnight instance = null;
-    private static final Object lock = new Object();
-    
-    // Private constructor untuk mencegah instantiation langsung
-    private LegendaryKnight(String name) {
-        super(name, 200, 80, 35, 25); // Superior stats
-        
-        // Add legendary skills
-        addSkill(new PowerStrike());
-        addSkill(new DefensiveStance());
-        addSkill(new Heal());
-        
-        System.out.println("A Legendary Knight has been awakened: " + name);
-    }
+// Indeks spasial grid seragam untuk posisi karakter
+// Dunia [0, width) x [0, height) dibagi menjadi sel persegi; setiap sel menyimpan array
+// anggota dengan swap-remove dan karakter mengingat sel serta slotnya, sehingga insert,
+// remove dan move O(1). Posisi di luar batas dijepit ke sel tepi. Tidak thread-safe:
+// diperbarui dan di-query oleh thread simulasi (seperti CombatEventBus).
+class SpatialGrid {
+    private final float inverseCell;
+    private final int columns;
+    private final int rows;
+    private final Character[][] cells;
+    private final int[] counts;
+    private int size;
     
-    // Singleton pattern - hanya boleh ada satu instance
-    public static LegendaryKnight getInstance(String name) {
-        if (instance == null) {
-            synchronized (lock) {
-                if (instance == null) {
-                    instance = new LegendaryKnight(name);
-                } else {
-                    System.out.println("A Legendary Knight already exists: " + instance.getName());
-                    System.out.println("Cannot create another Legendary Knight");
-                    return null;
-                }
-            }
-        } else {
-            System.out.println("A Legendary Knight already exists: " + instance.getName());
-            return null;
+    public SpatialGrid(float width, float height, float cellSize) {
+        if (width <= 0 || height <= 0 || cellSize <= 0) {
+            throw new IllegalArgumentException("Grid dimensions must be positive");
         }
-        return instance;
+        this.inverseCell = 1f / cellSize;
+        this.columns = Math.max(1, (int) Math.ceil(width / cellSize));
+        this.rows = Math.max(1, (int) Math.ceil(height / cellSize));
+        this.cells = new Character[columns * rows][];
+        this.counts = new int[columns * rows];
     }
     
-    // Method untuk mengecek apakah sudah ada Legendary Knight
-    public static boolean exists() {
-        return instance != null && instance.isAlive();
+    private int column(float x) {
+        return Math.min(columns - 1, Math.max(0, (int) (x * inverseCell)));
     }
     
-    // Method untuk mereset instance (jika knight mati)
-    public static void resetInstance() {
-        synchronized (lock) {
-            instance = null;
-            System.out.println("The Legendary Knight has fallen. A new one may arise.");
-        }
+    private int row(float y) {
+        return Math.min(rows - 1, Math.max(0, (int) (y * inverseCell)));
     }
     
-    @Override
-    public void useSpecialAbility(Character target) {
-        System.out.println(this.name + " channels the power of legends!");
-        System.out.println("All stats temporarily doubled!");
-        
-        // Temporary massive stat boost
-        int originalAttack = this.attack;
-        int originalDefense = this.defense;
-        this.attack *= 2;
-        this.defense *= 2;
-        
-        System.out.println("Attack: " + originalAttack + " -> " + this.attack);
-        System.out.println("Defense: " + originalDefense + " -> " + this.defense);
+    void insert(Character character) {
+        character.grid = this;
+        add(character, row(character.y) * columns + column(character.x));
+        size++;
     }
     
-    @Override
-    public String getCharacterClass() {
-        return "Legendary Knight";
+    void remove(Character character) {
+        if (character.grid != this) return;
+        detach(character);
+        character.grid = null;
+        character.gridCell = -1;
+        size--;
     }
     
-    @Override
-    public void levelUp() {
-        this.level++;
-        this.maxHealth += 30;
-        this.health = this.maxHealth;
-        this.maxMana += 15;
-        this.mana = this.maxMana;
-        this.attack += 8;
-        this.defense += 5;
-        this.experience = 0;
-        
-        System.out.println(this.name + " leveled up to level " + this.level + "!");
-        System.out.println("Legendary power grows stronger!");
+    // Dipanggil setelah posisi karakter berubah
+    void update(Character character) {
+        int cell = row(character.y) * columns + column(character.x);
+        if (cell != character.gridCell) {
+            detach(character);
+            add(character, cell);
+        }
     }
     
-    @Override
-    public void takeDamage(int damage) {
-        super.takeDamage(damage);
-        // Reset singleton if legendary knight dies
-        if (!this.isAlive) {
-            resetInstance();
+    private void add(Character character, int cell) {
+        Character[] members = cells[cell];
+        int count = counts[cell];
+        if (members == null) {
+            members = cells[cell] = new Character[4];
+        } else if (count == members.length) {
+            members = cells[cell] = Arrays.copyOf(members, count * 2);
         }
+        members[count] = character;
+        counts[cell] = count + 1;
+        character.gridCell = cell;
+        character.gridSlot = count;
     }
-}
-
-// Class untuk mengelola party/group karakter
-class Party {
-    private List<Character> members;
-    private String partyName;
     
-    public Party(String partyName) {
-        this.partyName = partyName;
-        this.members = new ArrayList<>();
+    // Swap-remove: anggota terakhir sel menempati slot yang dikosongkan
+    private void detach(Character character) {
+        int cell = character.gridCell;
+        Character[] members = cells[cell];
+        int last = --counts[cell];
+        Character moved = members[last];
+        members[character.gridSlot] = moved;
+        moved.gridSlot = character.gridSlot;
+        members[last] = null;
     }
     
-    public void addMember(Character character) {
-        if (character != null) {
-            members.add(character);
-            System.out.println(character.getName() + " joined party " + partyName);
+    // Menambahkan semua karakter dalam jarak radius dari (x, y) ke out
+    public void queryRadius(float x, float y, float radius, List<Character> out) {
+        float radiusSquared = radius * radius;
+        int rowEnd = row(y + radius);
+        int columnEnd = column(x + radius);
+        for (int r = row(y - radius); r <= rowEnd; r++) {
+            for (int c = column(x - radius); c <= columnEnd; c++) {
+                int cell = r * columns + c;
+                Character[] members = cells[cell];
+                for (int i = 0, count = counts[cell]; i < count; i++) {
+                    Character member = members[i];
+                    float dx = member.x - x;
+                    float dy = member.y - y;
+                    if (dx * dx + dy * dy <= radiusSquared) {
+                        out.add(member);
+                    }
+                }
+            }
         }
     }
     
-    public void displayParty() {
-        System.out.println("=== Party: " + partyName + " ===");
-        if (members.isEmpty()) {
-            System.out.println("No members in party");
+    // Menambahkan karakter dalam kerucut dari (x, y) ke arah (directionX, directionY);
+    // arah nol dianggap lingkaran penuh
+    public void queryCone(float x, float y, float directionX, float directionY, float range,
+                          float cosHalfAngle, List<Character> out) {
+        float length = (float) Math.sqrt(directionX * directionX + directionY * directionY);
+        if (length == 0) {
+            queryRadius(x, y, range, out);
             return;
         }
-        
-        for (int i = 0; i < members.size(); i++) {
-            System.out.println((i + 1) + ". " + members.get(i).getName() + 
-                             " (" + members.get(i).getCharacterClass() + ") - Level " + 
-                             members.get(i).getLevel());
+        float unitX = directionX / length;
+        float unitY = directionY / length;
+        float rangeSquared = range * range;
+        int rowEnd = row(y + range);
+        int columnEnd = column(x + range);
+        for (int r = row(y - range); r <= rowEnd; r++) {
+            for (int c = column(x - range); c <= columnEnd; c++) {
+                int cell = r * columns + c;
+                Character[] members = cells[cell];
+                for (int i = 0, count = counts[cell]; i < count; i++) {
+                    Character member = members[i];
+                    float dx = member.x - x;
+                    float dy = member.y - y;
+                    float distanceSquared = dx * dx + dy * dy;
+                    if (distanceSquared > rangeSquared) continue;
+                    // Sudut ke sumbu kerucut <= setengah sudut buka: dot >= cos * jarak
+                    if (dx * unitX + dy * unitY >= cosHalfAngle * (float) Math.sqrt(distanceSquared)) {
+                        out.add(member);
+                    }
+                }
+            }
         }
     }
     
-    public void displayAllStatus() {
-        System.out.println("=== Full Party Status ===");
-        for (Character member : members) {
-            member.displayStatus();
-            System.out.println();
-        }
-    }
+    public int size() { return size; }
+}
+
+// Resolusi skill area terhadap sekumpulan target
+// Nilai per target di-roll paralel untuk hit set besar (random di-split per chunk secara
+// berurutan sehingga hasil sumber seeded tetap deterministik), lalu diterapkan di thread
+// pemanggil karena takeDamage/heal mempublikasikan event dan memicu loot (single writer).
+final class AreaEffects {
+    static final int PARALLEL_THRESHOLD = 4096;
+    private static final int CHUNK = 1024;
     
-    public List<Character> getMembers() {
-        return members;
-    }
+    private AreaEffects() {}
     
-    public Character getMember(int index) {
-        if (index >= 0 && index < members.size()) {
-            return members.get(index);
+    // Mengembalikan total damage/healing yang dihasilkan
+    static int resolve(Character user, Skill skill, List<Character> targets, RandomSource random) {
+        int count = targets.size();
+        if (!skill.hasValue()) {
+            // Skill tanpa nilai per target (misalnya buff) diterapkan langsung ke setiap target
+            long total = 0;
+            for (Character target : targets) {
+                total += Math.max(0, skill.useSkill(user, target, random));
+            }
+            return (int) Math.min(Integer.MAX_VALUE, total);
         }
-        return null;
+        
+        int[] values = new int[count];
+        if (count >= PARALLEL_THRESHOLD) {
+            int chunks = (count + CHUNK - 1) / CHUNK;
+            RandomSource[] sources = new RandomSource[chunks];
+            for (int c = 0; c < chunks; c++) {
+                sources[c] = random.split();
+            }
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                for (int i = c * CHUNK, end = Math.min(count, i + CHUNK); i < end; i++) {
+                    values[i] = Math.max(0, skill.rollValue(user, targets.get(i), sources[c]));
+                }
+            });
+        } else {
+            for (int i = 0; i < count; i++) {
+                values[i] = Math.max(0, skill.rollValue(user, targets.get(i), random));
+            }
+        }
+        
+        // Nilai diterapkan lewat applyValue, hook yang sama dengan useSkill, sehingga efek
+        // samping skill (misalnya pesan "Fireball burns") tetap terjadi untuk setiap target
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += skill.applyValue(user, targets.get(i), values[i]);
+        }
+        return (int) Math.min(Integer.MAX_VALUE, total);
     }
 }
 